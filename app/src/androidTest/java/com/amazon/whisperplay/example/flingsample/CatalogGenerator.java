@@ -0,0 +1,109 @@
+/**
+ * CatalogGenerator.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ Generated catalogs shaped like FlingSample.json, for the benchmarks.
+
+ Every entry has a title, url, icon and metadata with type, title and
+ description; every fourth one also has two subtitle tracks. Values are
+ distinct per entry except the types, as in a real catalog.
+ */
+final class CatalogGenerator {
+
+    private static final String[] TYPES = { "video/mp4", "audio/mpeg", "image/jpeg" };
+
+    private CatalogGenerator() {
+    }
+
+    /*
+     Writes count entries as a JSON database into file.
+     */
+    static File write(File file, int count) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(entry(i));
+            }
+            writer.write("\n]\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /*
+     Builds count sources the way the parser does, every string a fresh
+     instance, with the metadata in a CompactMetadata or in a HashMap as
+     before.
+     */
+    static List<MediaSourceManager.MediaSource> sources(int count, boolean compact) {
+        List<MediaSourceManager.MediaSource> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MediaSourceManager.MediaSource source = new MediaSourceManager.MediaSource();
+            source.presentableTitle = "Media " + i;
+            source.url = "https://example.com/media/" + i + ".mp4";
+            source.iconUrl = "https://example.com/icons/" + i + ".jpg";
+            source.metadata = compact
+                    ? new CompactMetadata() : new HashMap<String, Object>();
+            source.metadata.put(new String("type"), new String(type(i)));
+            source.metadata.put(new String("title"), "Title " + i);
+            source.metadata.put(new String("description"), description(i));
+            sources.add(source);
+        }
+        return sources;
+    }
+
+    private static String type(int i) {
+        return TYPES[i % TYPES.length];
+    }
+
+    private static String description(int i) {
+        return "Description of media " + i + ", long enough to wrap over two lines"
+                + " of the media list like the descriptions of the sample catalog.";
+    }
+
+    private static String entry(int i) {
+        StringBuilder entry = new StringBuilder(512);
+        entry.append("  {\"title\": \"Media ").append(i)
+                .append("\", \"url\": \"https://example.com/media/").append(i)
+                .append(".mp4\", \"iconUrl\": \"https://example.com/icons/").append(i)
+                .append(".jpg\", \"metadata\": {\"type\": \"").append(type(i))
+                .append("\", \"title\": \"Title ").append(i)
+                .append("\", \"description\": \"").append(description(i)).append('"');
+        if (i % 4 == 0) {
+            entry.append(", \"tracks\": [");
+            entry.append("{\"src\": \"https://example.com/subtitles/").append(i)
+                    .append("_en.vtt\", \"kind\": \"subtitles\", \"srclang\": \"en-US\","
+                            + " \"label\": \"English\"}, ");
+            entry.append("{\"src\": \"https://example.com/subtitles/").append(i)
+                    .append("_kr.vtt\", \"kind\": \"subtitles\", \"srclang\": \"kr-KOR\","
+                            + " \"label\": \"Korean\"}]");
+        }
+        entry.append("}}");
+        return entry.toString();
+    }
+}
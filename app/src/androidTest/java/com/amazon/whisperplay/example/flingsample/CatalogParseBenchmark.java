@@ -0,0 +1,102 @@
+/**
+ * CatalogParseBenchmark.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ Compares the streaming parser with the tree parser it replaced on large
+ generated catalogs: parse time and peak heap above the idle heap, both
+ keeping every parsed source like getAllSources() does.
+
+ Run with ./gradlew connectedAndroidTest, results are logged under this tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogParseBenchmark {
+
+    private static final String TAG = CatalogParseBenchmark.class.getName();
+
+    private static final int[] SIZES = { 10000, 50000 };
+    // Runs per parser and size, the fastest one is reported
+    private static final int RUNS = 3;
+
+    static class Measurement {
+        int count;
+        long millis = Long.MAX_VALUE;
+        long peakBytes;
+
+        public String toString() {
+            return count + " sources in " + millis + "ms, peak heap "
+                    + (peakBytes / 1024) + "KB";
+        }
+    }
+
+    @Test
+    public void compareParsers() throws Exception {
+        File dir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        for (int size : SIZES) {
+            File file = CatalogGenerator.write(new File(dir, "parse-" + size + ".json"), size);
+            try {
+                Measurement streaming = measure(file, true);
+                Measurement tree = measure(file, false);
+                assertEquals(size, streaming.count);
+                assertEquals(size, tree.count);
+                Log.i(TAG, size + " entries, " + (file.length() / 1024) + "KB: streaming "
+                        + streaming + ", tree " + tree);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    static Measurement measure(File file, boolean streaming) throws Exception {
+        Measurement measurement = new Measurement();
+        for (int run = 0; run < RUNS; run++) {
+            HeapSampler heap = new HeapSampler();
+            heap.start();
+            long start = SystemClock.elapsedRealtime();
+            List<MediaSourceManager.MediaSource> sources =
+                    streaming ? readStreaming(file) : MediaSourceManager.readSourcesFromTree(file);
+            long millis = SystemClock.elapsedRealtime() - start;
+            long peak = heap.stop();
+            measurement.count = sources.size();
+            measurement.millis = Math.min(measurement.millis, millis);
+            measurement.peakBytes = Math.max(measurement.peakBytes, peak);
+        }
+        return measurement;
+    }
+
+    private static List<MediaSourceManager.MediaSource> readStreaming(File file)
+            throws IOException {
+        final List<MediaSourceManager.MediaSource> sources = new ArrayList<>();
+        MediaSourceManager.readSources(file, new MediaSourceManager.SourceListener() {
+            @Override
+            public boolean onSource(MediaSourceManager.MediaSource source) {
+                sources.add(source);
+                return true;
+            }
+        });
+        return sources;
+    }
+}
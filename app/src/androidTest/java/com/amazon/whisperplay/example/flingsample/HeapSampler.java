@@ -0,0 +1,74 @@
+/**
+ * HeapSampler.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+/*
+ Measures the heap in use while a benchmark runs.
+
+ start() collects garbage and takes the baseline, then a thread samples the
+ used heap every millisecond until stop(), which returns the highest sample
+ above the baseline. retained() gives what is still in use after a collection.
+ */
+final class HeapSampler {
+
+    private final Runtime mRuntime = Runtime.getRuntime();
+    private long mBaseline;
+    private volatile long mPeak;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    void start() {
+        mBaseline = usedAfterGc();
+        mPeak = mBaseline;
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (mRunning) {
+                    sample();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "HeapSampler");
+        mThread.start();
+    }
+
+    long stop() throws InterruptedException {
+        sample();
+        mRunning = false;
+        mThread.join();
+        return mPeak - mBaseline;
+    }
+
+    long retained() {
+        return usedAfterGc() - mBaseline;
+    }
+
+    private void sample() {
+        long used = mRuntime.totalMemory() - mRuntime.freeMemory();
+        if (used > mPeak) {
+            mPeak = used;
+        }
+    }
+}
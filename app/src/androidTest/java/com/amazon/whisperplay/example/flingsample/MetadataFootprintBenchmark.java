@@ -0,0 +1,64 @@
+/**
+ * MetadataFootprintBenchmark.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ Compares the heap retained by a catalog of sources with CompactMetadata and
+ with the HashMap metadata it replaced.
+
+ Run with ./gradlew connectedAndroidTest, results are logged under this tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetadataFootprintBenchmark {
+
+    private static final String TAG = MetadataFootprintBenchmark.class.getName();
+
+    private static final int[] SIZES = { 10000, 100000 };
+
+    @Test
+    public void compareLayouts() throws Exception {
+        for (int size : SIZES) {
+            long map = retained(size, false);
+            long compact = retained(size, true);
+            Log.i(TAG, size + " entries: HashMap " + format(map, size)
+                    + ", CompactMetadata " + format(compact, size));
+        }
+    }
+
+    /*
+     Heap still in use once count sources are built, garbage collected.
+     */
+    static long retained(int count, boolean compact) throws InterruptedException {
+        // Each run interns its own values, as a freshly started process would
+        CompactMetadata.clearInternedValues();
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+        List<MediaSourceManager.MediaSource> sources = CatalogGenerator.sources(count, compact);
+        heap.stop();
+        long retained = heap.retained();
+        assertEquals(count, sources.size());
+        return retained;
+    }
+
+    static String format(long bytes, int count) {
+        return (bytes / 1024) + "KB (" + (bytes / count) + " bytes/entry)";
+    }
+}
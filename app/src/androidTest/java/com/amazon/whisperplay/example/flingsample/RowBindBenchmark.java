@@ -0,0 +1,102 @@
+/**
+ * RowBindBenchmark.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/*
+ Binds media rows the way a fast fling through the list does, always into
+ the same recycled row, and reports the allocations and time per bind.
+
+ Sources have no icon, so binding shows the placeholder and nothing is
+ downloaded. Rows are built by a first pass through
+ the catalog, the measured passes are the steady state of scrolling.
+
+ Run with ./gradlew connectedAndroidTest, results are logged under this tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowBindBenchmark {
+
+    private static final String TAG = RowBindBenchmark.class.getName();
+
+    private static final int ROWS = 1000;
+    private static final int BINDS = 20000;
+
+    static class Measurement {
+        int binds;
+        int allocations;
+        int allocatedBytes;
+        long nanos;
+
+        public String toString() {
+            return binds + " binds, " + ((float) allocations / binds) + " allocations and "
+                    + ((float) allocatedBytes / binds) + " bytes per bind, "
+                    + (nanos / binds) + "ns per bind";
+        }
+    }
+
+    @Test
+    public void bindRows() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Measurement[] measurement = new Measurement[1];
+        // Row views belong to the main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                measurement[0] = measure(context);
+            }
+        });
+        Log.i(TAG, measurement[0].toString());
+        assertTrue(measurement[0].binds == BINDS);
+    }
+
+    static Measurement measure(Context context) {
+        List<MediaSourceManager.MediaSource> sources = CatalogGenerator.sources(ROWS, true);
+        for (MediaSourceManager.MediaSource source : sources) {
+            source.iconUrl = "";
+        }
+        MediaListAdapter adapter = new MediaListAdapter(context, sources);
+        ViewGroup parent = new FrameLayout(context);
+        View row = adapter.getView(0, null, parent);
+        // Builds every row model and warms up the binding code
+        for (int position = 1; position < ROWS; position++) {
+            adapter.getView(position, row, parent);
+        }
+
+        Measurement measurement = new Measurement();
+        measurement.binds = BINDS;
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            adapter.getView(i % ROWS, row, parent);
+        }
+        measurement.nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        measurement.allocations = Debug.getThreadAllocCount();
+        measurement.allocatedBytes = Debug.getThreadAllocSize();
+        return measurement;
+    }
+}
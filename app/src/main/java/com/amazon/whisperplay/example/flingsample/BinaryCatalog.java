@@ -0,0 +1,433 @@
+/**
+ * BinaryCatalog.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/*
+ Compact binary form of the JSON media database, read through a memory mapped file.
+
+ Layout (big endian):
+   header  : magic, version, source length, source mtime, source hash, record count
+   records : one fixed width record per source holding the offsets of its
+             title, url, iconUrl and metadata in the string table, and its
+             content hash (MediaSource.getContentHash())
+   strings : length prefixed UTF-8 strings, repeated values stored once
+   metadata: stored in the string table as count, then per entry the offset
+             of the key, a value kind and the offset of the value. Strings
+             are stored as is, other values as their JSON text.
+
+ Nothing is decoded when the catalog is opened. A MediaSource is only built
+ when get() is called for its position, e.g. when a row is bound or flung.
+ */
+public class BinaryCatalog extends AbstractList<MediaSourceManager.MediaSource>
+        implements CatalogRecords {
+
+    private static final String TAG = BinaryCatalog.class.getName();
+
+    private static final int MAGIC = 0x464C4354; // "FLCT"
+    // Bump when the layout changes. Older files are rebuilt automatically.
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+    private static final int FIELDS_PER_RECORD = 5;
+    private static final int RECORD_SIZE = FIELDS_PER_RECORD * 4;
+    // Kinds of metadata values
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_JSON = 1;
+    // Upper bound of the de-duplication table used while compiling
+    private static final int MAX_SHARED_STRINGS = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCount;
+    private final int mStringsOffset;
+    private final long mSourceHash;
+
+    private BinaryCatalog(MappedByteBuffer buffer, int count, long sourceHash) {
+        mBuffer = buffer;
+        mCount = count;
+        mSourceHash = sourceHash;
+        mStringsOffset = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    /*
+     Maps the compiled catalog. Returns null when the file is missing, has another
+     format version or was compiled from a different revision of the JSON database.
+     */
+    public static BinaryCatalog open(File binFile, File jsonFile) {
+        List<File> files = Collections.singletonList(jsonFile);
+        return open(binFile, MediaSourceManager.totalLength(files),
+                MediaSourceManager.combinedModified(files));
+    }
+
+    public static BinaryCatalog open(File binFile, long sourceLength, long sourceModified) {
+        if (!binFile.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(binFile, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                Log.i(TAG, "Binary catalog has an old format, rebuilding.");
+                return null;
+            }
+            if (buffer.getLong(8) != sourceLength || buffer.getLong(16) != sourceModified) {
+                Log.i(TAG, "Binary catalog is older than the JSON database, rebuilding.");
+                return null;
+            }
+            int count = buffer.getInt(32);
+            if (HEADER_SIZE + (long) count * RECORD_SIZE > channel.size()) {
+                Log.w(TAG, "Binary catalog is truncated, rebuilding.");
+                return null;
+            }
+            return new BinaryCatalog(buffer, count, buffer.getLong(24));
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening binary catalog. " + e.toString());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing binary catalog. " + e.toString());
+                }
+            }
+        }
+    }
+
+    /*
+     Compiles the JSON database into binFile. The JSON is streamed, so only the
+     records and the shared string table are kept in memory while compiling.
+     The result is written to a temporary file and renamed into place.
+     Parsed sources are also passed to progress, if given. Returns false when
+     progress cancelled the compilation, leaving binFile untouched.
+     sourceLength and sourceModified are stamped as in write(), the hash of the
+     JSON is taken while it is read.
+     */
+    public static boolean compile(File jsonFile, File binFile, long sourceLength,
+            long sourceModified, final MediaSourceManager.SourceListener progress)
+            throws IOException {
+        final Writer writer = new Writer(binFile);
+        CRC32 crc = new CRC32();
+        InputStream jsonStream = new CheckedInputStream(new FileInputStream(jsonFile), crc);
+        try {
+            boolean complete;
+            try {
+                complete = MediaSourceManager.readSources(jsonStream, new MediaSourceManager.SourceListener() {
+                    @Override
+                    public boolean onSource(MediaSourceManager.MediaSource source) {
+                        try {
+                            writer.add(source);
+                            return progress == null || progress.onSource(source);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+            } catch (IllegalStateException e) {
+                throw new IOException("Error compiling binary catalog", e);
+            }
+            if (!complete) {
+                return false;
+            }
+            // The parser stops at the end of the array, hash what follows too
+            byte[] tail = new byte[4096];
+            while (jsonStream.read(tail) != -1) {
+                // Read for the checksum only
+            }
+            writer.finish(sourceLength, sourceModified, crc.getValue());
+            return true;
+        } finally {
+            jsonStream.close();
+            writer.discard();
+        }
+    }
+
+    /*
+     Writes already loaded sources into binFile, e.g. a catalog merged from several
+     files. sourceLength and sourceModified identify the revision of the sources
+     and must be passed to open() again to map the file. sourceHash is kept for
+     getSourceHash(), -1 if unknown.
+     */
+    public static void write(List<MediaSourceManager.MediaSource> sources, long sourceLength,
+                             long sourceModified, long sourceHash, File binFile)
+            throws IOException {
+        Writer writer = new Writer(binFile);
+        try {
+            for (MediaSourceManager.MediaSource source : sources) {
+                writer.add(source);
+            }
+            writer.finish(sourceLength, sourceModified, sourceHash);
+        } finally {
+            writer.discard();
+        }
+    }
+
+    /*
+     Returns the CRC32 of the JSON the catalog was compiled from, see
+     MediaSourceManager.hashFiles(), or -1 if unknown.
+     */
+    public long getSourceHash() {
+        return mSourceHash;
+    }
+
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    @Override
+    public MediaSourceManager.MediaSource get(int location) {
+        int record = recordOffset(location);
+        MediaSourceManager.MediaSource source = new MediaSourceManager.MediaSource();
+        source.presentableTitle = readString(mBuffer.getInt(record));
+        source.url = readString(mBuffer.getInt(record + 4));
+        source.iconUrl = readString(mBuffer.getInt(record + 8));
+        source.metadata = readMetadata(mBuffer.getInt(record + 12));
+        return source;
+    }
+
+    /*
+     Returns the url of the source at location without decoding the source.
+     */
+    @Override
+    public String getUrl(int location) {
+        return readString(mBuffer.getInt(recordOffset(location) + 4));
+    }
+
+    /*
+     Returns the content hash stored for the source at location, nothing is decoded.
+     */
+    @Override
+    public int getContentHash(int location) {
+        return mBuffer.getInt(recordOffset(location) + 16);
+    }
+
+    private int recordOffset(int location) {
+        if (location < 0 || location >= mCount) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + mCount);
+        }
+        return HEADER_SIZE + location * RECORD_SIZE;
+    }
+
+    private String readString(int offset) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mStringsOffset + offset);
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /*
+     Reads the metadata written by Writer.addMetadata(). Only values that are not
+     strings, e.g. subtitle tracks, go through the JSON parser.
+     */
+    private Map<String, Object> readMetadata(int offset) {
+        ByteBuffer buffer = mBuffer.duplicate();
+        // Skips the length prefix of the block
+        buffer.position(mStringsOffset + offset + 4);
+        int count = buffer.getInt();
+        Map<String, Object> metadata = new CompactMetadata();
+        for (int i = 0; i < count; i++) {
+            String key = readString(buffer.getInt());
+            int kind = buffer.get();
+            String value = readString(buffer.getInt());
+            if (kind == VALUE_STRING) {
+                metadata.put(key, value);
+                continue;
+            }
+            try {
+                metadata.put(key, new JSONTokener(value).nextValue());
+            } catch (JSONException e) {
+                Log.e(TAG, "Error decoding metadata " + key + ". " + e.toString());
+            }
+        }
+        return metadata;
+    }
+
+    /*
+     Collects records and strings of the compiled catalog. The string table is
+     written to a side file while sources are added; finish() writes the header
+     and records and appends the string table to produce the final file.
+     */
+    private static class Writer {
+        private final File mBinFile;
+        private final File mStringsFile;
+        private final File mTmpFile;
+        private final DataOutputStream mStrings;
+        private final StringTable mTable;
+        // Reused for the metadata block of each source
+        private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream(256);
+        private final DataOutputStream mBlockOut = new DataOutputStream(mBlock);
+        private int[] mRecords = new int[64 * FIELDS_PER_RECORD];
+        private int mCount = 0;
+
+        Writer(File binFile) throws IOException {
+            mBinFile = binFile;
+            mStringsFile = new File(binFile.getPath() + ".strings");
+            mTmpFile = new File(binFile.getPath() + ".tmp");
+            mStrings = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mStringsFile)));
+            mTable = new StringTable(mStrings);
+        }
+
+        void add(MediaSourceManager.MediaSource source) throws IOException {
+            int base = mCount * FIELDS_PER_RECORD;
+            if (base + FIELDS_PER_RECORD > mRecords.length) {
+                int[] grown = new int[mRecords.length * 2];
+                System.arraycopy(mRecords, 0, grown, 0, mRecords.length);
+                mRecords = grown;
+            }
+            mRecords[base] = mTable.add(source.presentableTitle, false);
+            mRecords[base + 1] = mTable.add(source.url, false);
+            mRecords[base + 2] = mTable.add(source.iconUrl, true);
+            mRecords[base + 3] = addMetadata(source.metadata);
+            mRecords[base + 4] = source.getContentHash();
+            mCount++;
+        }
+
+        private int addMetadata(Map<String, Object> metadata) throws IOException {
+            mBlock.reset();
+            mBlockOut.writeInt(metadata.size());
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                Object value = entry.getValue();
+                // Keys repeat in every source, they are stored once
+                mBlockOut.writeInt(mTable.add(entry.getKey(), true));
+                if (value instanceof String) {
+                    mBlockOut.writeByte(VALUE_STRING);
+                    mBlockOut.writeInt(mTable.add((String) value, false));
+                } else {
+                    // JSONObject.NULL, numbers and booleans print as JSON too
+                    mBlockOut.writeByte(VALUE_JSON);
+                    mBlockOut.writeInt(mTable.add(String.valueOf(value), false));
+                }
+            }
+            mBlockOut.flush();
+            return mTable.add(mBlock.toByteArray());
+        }
+
+        void finish(long sourceLength, long sourceModified, long sourceHash) throws IOException {
+            mStrings.close();
+            FileOutputStream tmpStream = new FileOutputStream(mTmpFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(tmpStream));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(sourceModified);
+                out.writeLong(sourceHash);
+                out.writeInt(mCount);
+                for (int i = 0; i < mCount * FIELDS_PER_RECORD; i++) {
+                    out.writeInt(mRecords[i]);
+                }
+                out.flush();
+                // Append the string table without copying it through the heap
+                FileChannel source = new FileInputStream(mStringsFile).getChannel();
+                try {
+                    FileChannel target = tmpStream.getChannel();
+                    long position = 0;
+                    long size = source.size();
+                    while (position < size) {
+                        position += source.transferTo(position, size - position, target);
+                    }
+                } finally {
+                    source.close();
+                }
+            } finally {
+                out.close();
+            }
+            if (!mTmpFile.renameTo(mBinFile)) {
+                throw new IOException("Cannot rename " + mTmpFile + " to " + mBinFile);
+            }
+            Log.i(TAG, "Compiled " + mCount + " sources into " + mBinFile);
+        }
+
+        // Removes the intermediate files, whether finish() succeeded or not
+        void discard() {
+            try {
+                mStrings.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing string table. " + e.toString());
+            }
+            mStringsFile.delete();
+            mTmpFile.delete();
+        }
+    }
+
+    /*
+     Appends length prefixed strings and remembers the offset of values that
+     repeat across sources (icon urls, etc.) so they are stored once.
+     */
+    private static class StringTable {
+        private final DataOutputStream mOut;
+        private final Map<String, Integer> mShared = new HashMap<>();
+        private int mSize = 0;
+
+        StringTable(DataOutputStream out) {
+            mOut = out;
+        }
+
+        int add(String value, boolean share) throws IOException {
+            if (value == null) {
+                value = "";
+            }
+            if (share) {
+                Integer offset = mShared.get(value);
+                if (offset != null) {
+                    return offset;
+                }
+            }
+            int offset = add(value.getBytes(UTF_8));
+            if (share && mShared.size() < MAX_SHARED_STRINGS) {
+                mShared.put(value, offset);
+            }
+            return offset;
+        }
+
+        int add(byte[] bytes) throws IOException {
+            int offset = mSize;
+            mOut.writeInt(bytes.length);
+            mOut.write(bytes);
+            mSize += 4 + bytes.length;
+            return offset;
+        }
+    }
+}
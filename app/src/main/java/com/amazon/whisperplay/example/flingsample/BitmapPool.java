@@ -0,0 +1,222 @@
+/**
+ * BitmapPool.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Bitmaps no longer shown or cached, kept to be decoded into again (inBitmap).
+
+ Bitmaps are grouped in size classes. From KitKat on, a bitmap can take any
+ image that fits its allocation: classes are powers of two of the byte size,
+ and a request looks in its own class and the next one. Before KitKat the
+ decoded image must have exactly the size and config of the bitmap, so the
+ class is the exact size and config. The pool holds at most its byte budget,
+ the bitmaps pooled first are dropped first.
+ */
+public class BitmapPool {
+
+    private final int mMaxBytes;
+    private int mBytes;
+    // Size class to the bitmaps in it, last pooled on top
+    private final Map<Long, ArrayDeque<Bitmap>> mClasses = new HashMap<>();
+    // Every pooled bitmap to its size class, oldest first
+    private final LinkedHashMap<Bitmap, Long> mOrder = new LinkedHashMap<>();
+
+    private int mHits;
+    private int mMisses;
+    private int mPuts;
+    private int mEvictions;
+
+    public static class Stats {
+        public int hits;
+        public int misses;
+        public int puts;
+        public int evictions;
+        public int bytes;
+        public int maxBytes;
+
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " puts=" + puts
+                    + " evictions=" + evictions + " bytes=" + bytes + "/" + maxBytes;
+        }
+    }
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /*
+     Whether an image of this size can be decoded into a pooled bitmap on this
+     platform. Before KitKat only unscaled decodes can reuse bitmaps.
+     */
+    public static boolean canReuse(int sampleSize) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1;
+    }
+
+    /*
+     Takes a bitmap an image of width x height can be decoded into, or returns
+     null if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int bytes = width * height * getBytesPerPixel(config);
+        Bitmap bitmap = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            long sizeClass = getSizeClass(bytes);
+            bitmap = take(sizeClass, bytes);
+            if (bitmap == null) {
+                bitmap = take(sizeClass + 1, bytes);
+            }
+        } else {
+            bitmap = take(getExactClass(width, height, config), bytes);
+        }
+        if (bitmap == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /*
+     Adds a bitmap nothing uses any more. Returns false if it cannot be pooled,
+     the caller may then recycle it.
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || mOrder.containsKey(bitmap)) {
+            return false;
+        }
+        int bytes = getBytes(bitmap);
+        if (bytes > mMaxBytes / 2) {
+            return false;
+        }
+        long sizeClass = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? getSizeClass(bytes)
+                : getExactClass(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = mClasses.get(sizeClass);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mClasses.put(sizeClass, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        mOrder.put(bitmap, sizeClass);
+        mBytes += bytes;
+        mPuts++;
+        trimToSize(mMaxBytes);
+        return true;
+    }
+
+    /*
+     Drops the oldest bitmaps until the pool holds at most bytes.
+     */
+    public synchronized void trimToSize(int bytes) {
+        Iterator<Map.Entry<Bitmap, Long>> itr = mOrder.entrySet().iterator();
+        while (mBytes > bytes && itr.hasNext()) {
+            Map.Entry<Bitmap, Long> eldest = itr.next();
+            itr.remove();
+            Bitmap bitmap = eldest.getKey();
+            ArrayDeque<Bitmap> bitmaps = mClasses.get(eldest.getValue());
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                mClasses.remove(eldest.getValue());
+            }
+            mBytes -= getBytes(bitmap);
+            mEvictions++;
+            bitmap.recycle();
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /*
+     Shrinks the pool as the system asks, see ComponentCallbacks2.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.hits = mHits;
+        stats.misses = mMisses;
+        stats.puts = mPuts;
+        stats.evictions = mEvictions;
+        stats.bytes = mBytes;
+        stats.maxBytes = mMaxBytes;
+        return stats;
+    }
+
+    private Bitmap take(long sizeClass, int bytes) {
+        ArrayDeque<Bitmap> bitmaps = mClasses.get(sizeClass);
+        if (bitmaps == null) {
+            return null;
+        }
+        for (Iterator<Bitmap> itr = bitmaps.iterator(); itr.hasNext(); ) {
+            Bitmap bitmap = itr.next();
+            if (getBytes(bitmap) >= bytes) {
+                itr.remove();
+                if (bitmaps.isEmpty()) {
+                    mClasses.remove(sizeClass);
+                }
+                mOrder.remove(bitmap);
+                mBytes -= getBytes(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private static int getBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    // Power of two at or above bytes
+    private static long getSizeClass(int bytes) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(bytes - 1, 0));
+    }
+
+    private static long getExactClass(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
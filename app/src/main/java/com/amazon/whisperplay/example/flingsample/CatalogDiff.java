@@ -0,0 +1,134 @@
+/**
+ * CatalogDiff.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Differences between two versions of the catalog, sources matched by url.
+ Catalogs implementing CatalogRecords are compared by their stored urls and
+ content hashes, without decoding their sources.
+
+ Computed in background when the catalog is reloaded, so the list only has
+ to rebind the rows that changed and can keep its scroll position when
+ sources were added, removed or moved.
+ */
+public class CatalogDiff {
+
+    private static final int[] NONE = new int[0];
+
+    // New position of every old position, -1 if removed. Null if unchanged.
+    private final int[] mOldToNew;
+    // Sorted new positions of sources that are new or differ from their old version
+    private final int[] mChanged;
+    private final boolean mSameOrder;
+    private final int mInserted;
+    private final int mRemoved;
+
+    private CatalogDiff(int[] oldToNew, int[] changed, boolean sameOrder, int inserted,
+                        int removed) {
+        mOldToNew = oldToNew;
+        mChanged = changed;
+        mSameOrder = sameOrder;
+        mInserted = inserted;
+        mRemoved = removed;
+    }
+
+    public static CatalogDiff compute(List<MediaSourceManager.MediaSource> oldSources,
+                                      List<MediaSourceManager.MediaSource> newSources) {
+        if (oldSources == newSources) {
+            return new CatalogDiff(null, NONE, true, 0, 0);
+        }
+        int oldSize = oldSources.size();
+        Map<String, Integer> oldPositions = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(getUrl(oldSources, i), i);
+        }
+        int[] oldToNew = new int[oldSize];
+        Arrays.fill(oldToNew, -1);
+        int[] changed = new int[16];
+        int changedCount = 0;
+        boolean sameOrder = oldSize == newSources.size();
+        int inserted = 0;
+        for (int i = 0; i < newSources.size(); i++) {
+            Integer oldPosition = oldPositions.get(getUrl(newSources, i));
+            if (oldPosition != null && oldToNew[oldPosition] < 0) {
+                oldToNew[oldPosition] = i;
+                sameOrder &= oldPosition == i;
+                if (getContentHash(oldSources, oldPosition) == getContentHash(newSources, i)) {
+                    continue;
+                }
+            } else {
+                inserted++;
+                sameOrder = false;
+            }
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, changedCount * 2);
+            }
+            changed[changedCount++] = i;
+        }
+        int removed = oldSize - (newSources.size() - inserted);
+        return new CatalogDiff(oldToNew, Arrays.copyOf(changed, changedCount), sameOrder,
+                inserted, removed);
+    }
+
+    /*
+     True if both versions show the same sources in the same order.
+     */
+    public boolean isUnchanged() {
+        return mSameOrder && mChanged.length == 0;
+    }
+
+    /*
+     True if no source was added, removed or moved, only changed in place.
+     */
+    public boolean isSameOrder() {
+        return mSameOrder;
+    }
+
+    public boolean isChanged(int newPosition) {
+        return Arrays.binarySearch(mChanged, newPosition) >= 0;
+    }
+
+    /*
+     Returns the new position of the source at oldPosition, or -1 if it was removed.
+     */
+    public int getNewPosition(int oldPosition) {
+        if (mOldToNew == null) {
+            return oldPosition;
+        }
+        return oldPosition >= 0 && oldPosition < mOldToNew.length ? mOldToNew[oldPosition] : -1;
+    }
+
+    public String toString() {
+        return (isUnchanged() ? "unchanged" : mChanged.length + " changed") + ", "
+                + mInserted + " inserted, " + mRemoved + " removed"
+                + (mSameOrder ? "" : ", reordered");
+    }
+
+    private static String getUrl(List<MediaSourceManager.MediaSource> sources, int location) {
+        if (sources instanceof CatalogRecords) {
+            return ((CatalogRecords) sources).getUrl(location);
+        }
+        return sources.get(location).url;
+    }
+
+    private static int getContentHash(List<MediaSourceManager.MediaSource> sources,
+                                      int location) {
+        if (sources instanceof CatalogRecords) {
+            return ((CatalogRecords) sources).getContentHash(location);
+        }
+        return sources.get(location).getContentHash();
+    }
+}
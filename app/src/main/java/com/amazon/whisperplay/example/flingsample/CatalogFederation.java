@@ -0,0 +1,142 @@
+/**
+ * CatalogFederation.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ Loads a catalog split over several JSON files.
+
+ Every file is parsed on its own thread. The results are merged in the order
+ the files were given, keeping each source's position within its file, and a
+ url found in several files is only kept the first time. Parse time, source
+ count and error of every file are reported instead of failing the whole load.
+ */
+public class CatalogFederation {
+
+    private static final String TAG = CatalogFederation.class.getName();
+
+    public static class FileReport {
+        public File file;
+        public int sources;
+        public long parseMillis;
+        // Null if the file was read completely
+        public Exception error;
+
+        public String toString() {
+            return file.getName() + ": " + sources + " sources in " + parseMillis + "ms"
+                    + (error != null ? ", error: " + error : "");
+        }
+    }
+
+    public static class Result {
+        public List<MediaSourceManager.MediaSource> sources = new ArrayList<>();
+        public List<FileReport> reports = new ArrayList<>();
+        public int duplicates;
+    }
+
+    private static class FileLoad {
+        FileReport report = new FileReport();
+        List<MediaSourceManager.MediaSource> sources = new ArrayList<>();
+    }
+
+    /*
+     Parses the files in parallel and merges them into one list.
+     */
+    public static Result load(List<File> files) {
+        int threads = Math.max(1, Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<FileLoad>> loads = new ArrayList<>(files.size());
+        try {
+            for (final File file : files) {
+                loads.add(executor.submit(new Callable<FileLoad>() {
+                    @Override
+                    public FileLoad call() {
+                        return loadFile(file);
+                    }
+                }));
+            }
+
+            Result result = new Result();
+            Set<String> urls = new HashSet<>();
+            for (Future<FileLoad> future : loads) {
+                FileLoad load = getLoad(future);
+                if (load == null) {
+                    continue;
+                }
+                result.reports.add(load.report);
+                for (MediaSourceManager.MediaSource source : load.sources) {
+                    if (urls.add(source.url)) {
+                        result.sources.add(source);
+                    } else {
+                        result.duplicates++;
+                    }
+                }
+                if (load.report.error != null) {
+                    Log.e(TAG, "Catalog file failed. " + load.report);
+                } else {
+                    Log.i(TAG, "Catalog file loaded. " + load.report);
+                }
+            }
+            Log.i(TAG, "Merged " + result.sources.size() + " sources from " + files.size()
+                    + " files, " + result.duplicates + " duplicates dropped.");
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static FileLoad getLoad(Future<FileLoad> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while merging catalog files. " + e.toString());
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error loading catalog file. " + e.getCause());
+        }
+        return null;
+    }
+
+    private static FileLoad loadFile(File file) {
+        final FileLoad load = new FileLoad();
+        load.report.file = file;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            MediaSourceManager.readSources(file, new MediaSourceManager.SourceListener() {
+                @Override
+                public boolean onSource(MediaSourceManager.MediaSource source) {
+                    load.sources.add(source);
+                    return true;
+                }
+            });
+        } catch (Exception e) {
+            // Keep what was read before the error
+            load.report.error = e;
+        }
+        load.report.sources = load.sources.size();
+        load.report.parseMillis = SystemClock.elapsedRealtime() - start;
+        return load;
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * CatalogJournal.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+ Append-only journal of changes to the JSON database, kept next to it.
+
+ Every line is one JSON record: {"op":"add"|"update"|"remove","url":...,"source":{...}}
+ where source has the same form as a database entry (not needed for remove).
+ Readers remember how far they got and only read the records added since.
+ Once the journal grows past a threshold it is folded into the database and
+ emptied again, see compact(). When it cannot be folded, e.g. the catalog is
+ merged from several files, it is rewritten with one or two records per url
+ instead, see condense().
+ */
+public class CatalogJournal {
+
+    private static final String TAG = CatalogJournal.class.getName();
+
+    public static final String OP_ADD = "add";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_REMOVE = "remove";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Record {
+        public String op;
+        public String url;
+        // Null for remove records
+        public MediaSourceManager.MediaSource source;
+    }
+
+    private final File mFile;
+    // Changed whenever compact() or condense() rewrites the journal
+    private volatile int mGeneration;
+
+    public CatalogJournal(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public long length() {
+        return mFile.length();
+    }
+
+    /*
+     Offsets from before a change of generation do not point into the current
+     file anymore, readers must read it again from the start.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /*
+     Appends one change. Adding or updating a source with an existing url
+     replaces it, removing an unknown url is ignored. Waits for a running
+     compact(), so the record is not lost by its rename.
+     */
+    public synchronized void append(String op, String url, MediaSourceManager.MediaSource source)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(encode(op, url, source));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     Reads the complete records starting at offset and adds them to records.
+     Returns the offset following the last complete record, a partially written
+     last line is left for the next read.
+     */
+    public long read(long offset, List<Record> records) throws IOException {
+        return read(offset, Long.MAX_VALUE, records);
+    }
+
+    private long read(long offset, long end, List<Record> records) throws IOException {
+        if (!mFile.exists() || mFile.length() <= offset) {
+            return offset;
+        }
+        FileChannel channel = new FileInputStream(mFile).getChannel();
+        byte[] bytes;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (Math.min(channel.size(), end) - offset));
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                position += read;
+            }
+            bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        } finally {
+            channel.close();
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, start, i - start, UTF_8).trim();
+            start = i + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                records.add(parse(new JSONObject(line)));
+            } catch (JSONException e) {
+                Log.e(TAG, "Skipping invalid journal record. " + e.toString());
+            }
+        }
+        return offset + start;
+    }
+
+    /*
+     Writes sources as the new JSON database and removes the records up to
+     offset from the journal. Appends wait until the journal is replaced, so
+     every record past offset is kept. Both files are replaced through a
+     temporary file and a rename.
+     */
+    public synchronized void compact(List<MediaSourceManager.MediaSource> sources, File jsonFile,
+                                     long offset) throws IOException {
+        File tmpJson = new File(jsonFile.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmpJson), UTF_8));
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < sources.size(); i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(MediaSourceManager.toJson(sources.get(i)).toString());
+            }
+            writer.write("\n]\n");
+        } catch (JSONException e) {
+            throw new IOException("Cannot write database", e);
+        } finally {
+            writer.close();
+        }
+        if (!tmpJson.renameTo(jsonFile)) {
+            tmpJson.delete();
+            throw new IOException("Cannot rename " + tmpJson + " to " + jsonFile);
+        }
+
+        replace(null, offset);
+        Log.i(TAG, "Compacted journal into " + jsonFile + ", " + sources.size() + " sources.");
+    }
+
+    /*
+     Rewrites the records up to offset as the fewest records with the same
+     effect: the last add or update of each url, preceded by its remove if it
+     was removed and added again, so it lands at the end as before. Records
+     past offset are kept. Returns the new length of the journal.
+     */
+    public synchronized long condense(long offset) throws IOException {
+        List<Record> records = new ArrayList<>();
+        read(0, offset, records);
+        // Records of each url, in the order their entries take in the catalog
+        LinkedHashMap<String, Record[]> byUrl = new LinkedHashMap<>();
+        for (Record record : records) {
+            if (record.source != null && !record.source.url.equals(record.url)) {
+                Log.w(TAG, "Not condensing, " + record.url + " changes its url.");
+                return length();
+            }
+            Record[] previous = byUrl.get(record.url);
+            if (OP_REMOVE.equals(record.op)) {
+                byUrl.remove(record.url);
+                byUrl.put(record.url, new Record[] { record });
+            } else if (previous == null) {
+                byUrl.put(record.url, new Record[] { record });
+            } else if (OP_REMOVE.equals(previous[previous.length - 1].op)) {
+                // Added again after a remove, appended at the end of the catalog
+                byUrl.remove(record.url);
+                byUrl.put(record.url, new Record[] { previous[previous.length - 1], record });
+            } else {
+                // Updated in place, keeps the position of its first record
+                previous[previous.length - 1] = record;
+            }
+        }
+        ByteArrayOutputStream condensed = new ByteArrayOutputStream();
+        for (Record[] urlRecords : byUrl.values()) {
+            for (Record record : urlRecords) {
+                condensed.write(encode(record.op, record.url, record.source));
+            }
+        }
+        replace(condensed.toByteArray(), offset);
+        Log.i(TAG, "Condensed " + records.size() + " journal records into "
+                + condensed.size() + " bytes.");
+        return length();
+    }
+
+    // Replaces the records up to offset with head, keeping whatever was appended after offset
+    private void replace(byte[] head, long offset) throws IOException {
+        File tmpJournal = new File(mFile.getPath() + ".tmp");
+        FileChannel source = new FileInputStream(mFile).getChannel();
+        FileOutputStream targetStream = new FileOutputStream(tmpJournal);
+        FileChannel target = targetStream.getChannel();
+        try {
+            if (head != null) {
+                targetStream.write(head);
+            }
+            long position = offset;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        } finally {
+            source.close();
+            target.close();
+        }
+        if (!tmpJournal.renameTo(mFile)) {
+            tmpJournal.delete();
+            throw new IOException("Cannot rename " + tmpJournal + " to " + mFile);
+        }
+        mGeneration++;
+    }
+
+    private static byte[] encode(String op, String url, MediaSourceManager.MediaSource source)
+            throws IOException {
+        JSONObject record = new JSONObject();
+        try {
+            record.put("op", op);
+            record.put("url", url);
+            if (source != null) {
+                record.put("source", MediaSourceManager.toJson(source));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid journal record", e);
+        }
+        return (record.toString() + "\n").getBytes(UTF_8);
+    }
+
+    private static Record parse(JSONObject object) throws JSONException {
+        Record record = new Record();
+        record.op = object.getString("op");
+        record.url = object.getString("url");
+        JSONObject source = object.optJSONObject("source");
+        if (source != null) {
+            record.source = MediaSourceManager.fromJson(source);
+        }
+        if (!OP_REMOVE.equals(record.op) && record.source == null) {
+            throw new JSONException("Missing source for " + record.op + " " + record.url);
+        }
+        return record;
+    }
+}
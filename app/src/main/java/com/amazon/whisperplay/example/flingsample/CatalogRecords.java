@@ -0,0 +1,26 @@
+/**
+ * CatalogRecords.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+/*
+ A catalog that can tell the url and content hash of a position without
+ decoding the whole source, e.g. from the records of a BinaryCatalog.
+ Used when every entry of a catalog has to be looked at, see CatalogDiff.
+ */
+interface CatalogRecords {
+
+    String getUrl(int location);
+
+    /*
+     Returns MediaSource.getContentHash() of the source at location.
+     */
+    int getContentHash(int location);
+}
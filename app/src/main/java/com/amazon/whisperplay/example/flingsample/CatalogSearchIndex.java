@@ -0,0 +1,258 @@
+/**
+ * CatalogSearchIndex.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ Inverted index over the catalog titles and the metadata title, description and type.
+
+ Every word is a term with a posting list of catalog positions. Postings are
+ plain int arrays, each entry holding (position << WEIGHT_BITS | weight), where
+ the weight depends on the field the word was found in. Terms are kept sorted
+ for prefix lookups (as-you-type search) and indexed by trigrams so a query word
+ also matches inside longer words.
+ */
+public class CatalogSearchIndex {
+
+    private static final int WEIGHT_BITS = 4;
+    private static final int WEIGHT_MASK = (1 << WEIGHT_BITS) - 1;
+    private static final int TITLE_WEIGHT = 4;
+    private static final int TEXT_WEIGHT = 1;
+    // A word prefix match scores this much more than a match inside a word
+    private static final int PREFIX_BOOST = 2;
+
+    private final int mSize;
+    // Sorted terms and their posting lists, in the same order
+    private final String[] mTerms;
+    private final int[][] mPostings;
+    // Trigram to sorted ids of the terms containing it
+    private final Map<String, int[]> mTrigrams;
+
+    private CatalogSearchIndex(int size, String[] terms, int[][] postings,
+                               Map<String, int[]> trigrams) {
+        mSize = size;
+        mTerms = terms;
+        mPostings = postings;
+        mTrigrams = trigrams;
+    }
+
+    /*
+     Builds the index over the given sources. Positions returned by search()
+     are indexes in this list.
+     */
+    public static CatalogSearchIndex build(List<MediaSourceManager.MediaSource> sources) {
+        Map<String, IntList> postings = new HashMap<>();
+        int size = sources.size();
+        for (int position = 0; position < size; position++) {
+            MediaSourceManager.MediaSource source = sources.get(position);
+            addText(postings, position, source.presentableTitle, TITLE_WEIGHT);
+            if (source.metadata != null) {
+                addText(postings, position, source.metadata.get("title"), TITLE_WEIGHT);
+                addText(postings, position, source.metadata.get("description"), TEXT_WEIGHT);
+                addText(postings, position, source.metadata.get("type"), TEXT_WEIGHT);
+            }
+        }
+
+        String[] terms = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(terms);
+        int[][] termPostings = new int[terms.length][];
+        Map<String, IntList> trigrams = new HashMap<>();
+        for (int termId = 0; termId < terms.length; termId++) {
+            termPostings[termId] = postings.get(terms[termId]).toArray();
+            String term = terms[termId];
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                String trigram = term.substring(i, i + 3);
+                IntList ids = trigrams.get(trigram);
+                if (ids == null) {
+                    ids = new IntList();
+                    trigrams.put(trigram, ids);
+                }
+                if (ids.size == 0 || ids.values[ids.size - 1] != termId) {
+                    ids.add(termId);
+                }
+            }
+        }
+        Map<String, int[]> trigramIds = new HashMap<>(trigrams.size());
+        for (Map.Entry<String, IntList> entry : trigrams.entrySet()) {
+            trigramIds.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return new CatalogSearchIndex(size, terms, termPostings, trigramIds);
+    }
+
+    /*
+     Returns the positions of the sources matching every word of the query, best
+     match first. Words match as a prefix of an indexed word, or inside a word if
+     they are at least three characters long. At most limit positions are returned.
+     */
+    public int[] search(String query, int limit) {
+        String[] words = tokenize(query);
+        if (words.length == 0) {
+            return new int[0];
+        }
+        int[] scores = new int[mSize];
+        short[] matched = new short[mSize];
+        for (int w = 0; w < words.length; w++) {
+            String word = words[w];
+            int[] prefixRange = prefixRange(word);
+            for (int termId = prefixRange[0]; termId < prefixRange[1]; termId++) {
+                score(termId, w, PREFIX_BOOST, scores, matched);
+            }
+            for (int termId : infixTerms(word)) {
+                if (termId < prefixRange[0] || termId >= prefixRange[1]) {
+                    score(termId, w, 1, scores, matched);
+                }
+            }
+        }
+
+        int count = 0;
+        long[] ranked = new long[16];
+        for (int position = 0; position < mSize; position++) {
+            if (matched[position] == words.length) {
+                if (count == ranked.length) {
+                    ranked = Arrays.copyOf(ranked, count * 2);
+                }
+                // Higher score first, then catalog order
+                ranked[count++] = ((long) scores[position] << 32) | (Integer.MAX_VALUE - position);
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+        int[] result = new int[Math.min(count, limit)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Integer.MAX_VALUE - (int) (ranked[count - 1 - i] & 0xffffffffL);
+        }
+        return result;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private void score(int termId, int word, int factor, int[] scores, short[] matched) {
+        for (int posting : mPostings[termId]) {
+            int position = posting >>> WEIGHT_BITS;
+            // Count every query word only once per source
+            if (matched[position] == word) {
+                matched[position]++;
+            }
+            if (matched[position] == word + 1) {
+                scores[position] += (posting & WEIGHT_MASK) * factor;
+            }
+        }
+    }
+
+    private int[] prefixRange(String prefix) {
+        int start = Arrays.binarySearch(mTerms, prefix);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int end = start;
+        while (end < mTerms.length && mTerms[end].startsWith(prefix)) {
+            end++;
+        }
+        return new int[] { start, end };
+    }
+
+    private int[] infixTerms(String word) {
+        if (word.length() < 3) {
+            return new int[0];
+        }
+        // Intersect the term lists of every trigram, then verify the candidates
+        int[] candidates = null;
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            int[] ids = mTrigrams.get(word.substring(i, i + 3));
+            if (ids == null) {
+                return new int[0];
+            }
+            candidates = candidates == null ? ids : intersect(candidates, ids);
+        }
+        IntList result = new IntList();
+        for (int termId : candidates) {
+            if (mTerms[termId].contains(word)) {
+                result.add(termId);
+            }
+        }
+        return result.toArray();
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        IntList result = new IntList();
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result.add(a[i]);
+                i++;
+                j++;
+            }
+        }
+        return result.toArray();
+    }
+
+    private static void addText(Map<String, IntList> postings, int position, Object text,
+                                int weight) {
+        if (!(text instanceof String)) {
+            return;
+        }
+        for (String word : tokenize((String) text)) {
+            IntList list = postings.get(word);
+            if (list == null) {
+                list = new IntList();
+                postings.put(word, list);
+            }
+            int last = list.size - 1;
+            if (last >= 0 && (list.values[last] >>> WEIGHT_BITS) == position) {
+                // Same source again, keep the best field weight
+                int best = Math.max(list.values[last] & WEIGHT_MASK, weight);
+                list.values[last] = (position << WEIGHT_BITS) | best;
+            } else {
+                list.add((position << WEIGHT_BITS) | weight);
+            }
+        }
+    }
+
+    private static String[] tokenize(String text) {
+        String lower = text.toLowerCase(Locale.US);
+        String[] parts = lower.split("[^\\p{L}\\p{Nd}]+");
+        int count = 0;
+        for (String part : parts) {
+            if (!part.isEmpty()) {
+                parts[count++] = part;
+            }
+        }
+        return Arrays.copyOf(parts, count);
+    }
+
+    // Growable list of primitive ints, avoids boxing the posting lists
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
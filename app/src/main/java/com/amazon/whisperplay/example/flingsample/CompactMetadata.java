@@ -0,0 +1,223 @@
+/**
+ * CompactMetadata.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Metadata map of a MediaSource with the keys stored once for the whole catalog.
+
+ Keys ("type", "title", "description", "tracks", ...) are kept in a process wide
+ dictionary and every entry only holds one array of its own keys and values,
+ sized to the keys it actually has. Values of keys known to take few distinct
+ values, such as MIME types, are interned so all sources share one instance.
+ It is a regular Map for code using MediaSource.metadata.
+ */
+public class CompactMetadata extends AbstractMap<String, Object> {
+
+    // Keys with few distinct values across a catalog, their values are interned
+    private static final Set<String> INTERNED_KEYS = new HashSet<>(
+            Arrays.asList("type", "kind", "srclang", "label"));
+    // Longer values are not interned, they are unlikely to repeat
+    private static final int MAX_INTERNED_LENGTH = 32;
+    // Upper bound of the value intern table, in case a catalog misuses a key
+    private static final int MAX_INTERNED_VALUES = 1024;
+
+    private static final ConcurrentHashMap<String, String> sKeys = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> sValues = new ConcurrentHashMap<>();
+    private static final Object[] EMPTY = new Object[0];
+
+    // Dictionary key and value of each entry, one after the other
+    private Object[] mEntries = EMPTY;
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(sKeys.get(key));
+        return index >= 0 ? mEntries[index + 1] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(sKeys.get(key)) >= 0;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (value == null) {
+            // Missing keys are stored as null, JSON nulls are JSONObject.NULL
+            return remove(key);
+        }
+        String dictionaryKey = dictionaryKey(key);
+        value = internValue(dictionaryKey, value);
+        int index = indexOf(dictionaryKey);
+        if (index >= 0) {
+            Object previous = mEntries[index + 1];
+            mEntries[index + 1] = value;
+            return previous;
+        }
+        Object[] entries = Arrays.copyOf(mEntries, mEntries.length + 2);
+        entries[mEntries.length] = dictionaryKey;
+        entries[mEntries.length + 1] = value;
+        mEntries = entries;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(sKeys.get(key));
+        if (index < 0) {
+            return null;
+        }
+        Object previous = mEntries[index + 1];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return mEntries.length / 2;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public int size() {
+                return CompactMetadata.this.size();
+            }
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /*
+     Returns the shared instance of value if values of key are interned, e.g.
+     a MIME type. Used for nested values too, such as subtitle track languages.
+     */
+    static Object internValue(String key, Object value) {
+        if (!(value instanceof String) || !INTERNED_KEYS.contains(key)) {
+            return value;
+        }
+        String string = (String) value;
+        if (string.length() > MAX_INTERNED_LENGTH) {
+            return string;
+        }
+        String interned = sValues.get(string);
+        if (interned != null) {
+            return interned;
+        }
+        if (sValues.size() >= MAX_INTERNED_VALUES) {
+            return string;
+        }
+        interned = sValues.putIfAbsent(string, string);
+        return interned != null ? interned : string;
+    }
+
+    /*
+     Forgets the interned values, so that a benchmark run does not measure
+     a table filled by the previous one.
+     */
+    static void clearInternedValues() {
+        sValues.clear();
+    }
+
+    private static String dictionaryKey(String key) {
+        String dictionaryKey = sKeys.get(key);
+        if (dictionaryKey != null) {
+            return dictionaryKey;
+        }
+        dictionaryKey = sKeys.putIfAbsent(key, key);
+        return dictionaryKey != null ? dictionaryKey : key;
+    }
+
+    // Keys are compared by reference, they all come from the dictionary
+    private int indexOf(String dictionaryKey) {
+        if (dictionaryKey == null) {
+            return -1;
+        }
+        for (int i = 0; i < mEntries.length; i += 2) {
+            if (mEntries[i] == dictionaryKey) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        Object[] entries = new Object[mEntries.length - 2];
+        System.arraycopy(mEntries, 0, entries, 0, index);
+        System.arraycopy(mEntries, index + 2, entries, index, entries.length - index);
+        mEntries = entries;
+    }
+
+    /*
+     Entry returned while iterating, setValue() writes through to the map.
+     */
+    private class MetadataEntry extends SimpleEntry<String, Object> {
+        MetadataEntry(int index) {
+            super((String) mEntries[index], mEntries[index + 1]);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Null values are not stored, remove the key");
+            }
+            int index = indexOf((String) getKey());
+            if (index < 0) {
+                throw new IllegalStateException("Entry was removed from the map");
+            }
+            value = internValue(getKey(), value);
+            mEntries[index + 1] = value;
+            return super.setValue(value);
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int mNext = 0;
+        private int mLast = -1;
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mEntries.length;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mLast = mNext;
+            mNext += 2;
+            return new MetadataEntry(mLast);
+        }
+
+        @Override
+        public void remove() {
+            if (mLast < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(mLast);
+            mNext = mLast;
+            mLast = -1;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * DeviceRegistry.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Discovered players, keyed by their unique identifier.
+
+ Discovery threads add and remove players concurrently. After each change a
+ sorted, unmodifiable snapshot of the players is published, which the UI
+ reads without any lock: a snapshot never changes once published.
+ */
+public class DeviceRegistry {
+
+    private final ConcurrentHashMap<String, RemoteMediaPlayer> mDevices =
+            new ConcurrentHashMap<>();
+    private final Comparator<RemoteMediaPlayer> mComparator;
+    // Serializes publishing between discovery threads only
+    private final Object mPublishLock = new Object();
+    private volatile List<RemoteMediaPlayer> mSnapshot = Collections.emptyList();
+
+    public DeviceRegistry(Comparator<RemoteMediaPlayer> comparator) {
+        mComparator = comparator;
+    }
+
+    /*
+     Adds or updates a player. Returns true if it was not known before.
+     */
+    public boolean put(RemoteMediaPlayer device) {
+        boolean added = mDevices.put(device.getUniqueIdentifier(), device) == null;
+        publish();
+        return added;
+    }
+
+    /*
+     Removes a player. Returns false if it was not known.
+     */
+    public boolean remove(RemoteMediaPlayer device) {
+        boolean removed = mDevices.remove(device.getUniqueIdentifier()) != null;
+        if (removed) {
+            publish();
+        }
+        return removed;
+    }
+
+    public Comparator<RemoteMediaPlayer> getComparator() {
+        return mComparator;
+    }
+
+    public RemoteMediaPlayer get(String uniqueIdentifier) {
+        return mDevices.get(uniqueIdentifier);
+    }
+
+    public boolean contains(RemoteMediaPlayer device) {
+        return mDevices.containsKey(device.getUniqueIdentifier());
+    }
+
+    public void clear() {
+        mDevices.clear();
+        publish();
+    }
+
+    /*
+     Returns the players sorted with the comparator. The list is unmodifiable
+     and does not follow later changes.
+     */
+    public List<RemoteMediaPlayer> getSnapshot() {
+        return mSnapshot;
+    }
+
+    private void publish() {
+        synchronized (mPublishLock) {
+            List<RemoteMediaPlayer> devices = new ArrayList<>(mDevices.values());
+            Collections.sort(devices, mComparator);
+            mSnapshot = Collections.unmodifiableList(devices);
+        }
+    }
+}
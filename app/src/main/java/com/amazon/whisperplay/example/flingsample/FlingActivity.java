@@ -21,16 +21,17 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
+import android.widget.SearchView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
-import com.amazon.whisperplay.fling.media.controller.DiscoveryController;
 import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer.FutureListener;
 import com.amazon.whisperplay.fling.media.service.MediaPlayerInfo;
 import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
@@ -43,14 +44,9 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 public class FlingActivity extends Activity implements View.OnClickListener {
 
@@ -68,16 +64,30 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     private Status mStatus = new Status();
     private final Object mStatusLock = new Object();
 
-    // Discovery controller that triggers start/stop discovery
-    private DiscoveryController mController;
+    // Discovery and player subscription, kept across activity instances
+    private FlingSession mSession;
+    // Runs the queries on players, see RemoteTask
+    private final RemoteCallExecutor mRemoteCalls = RemoteCallExecutor.getDefault();
+    // Duration and info of the media on each player, asked once per media
+    private final SessionStateCache mSessionState = SessionStateCache.getDefault();
+    // Url of the media on mCurrentDevice, null until flung or told by the player
+    private volatile String mCurrentUrl;
 
-    // Lock object for mDeviceList synchronization
+    // Lock object for mCurrentDevice changes
     private final Object mDeviceListAvailableLock = new Object();
-    // Set the discovered devices from Discovery controller
-    private List<RemoteMediaPlayer> mDeviceList = new LinkedList<>();
-    private List<RemoteMediaPlayer> mPickerDeviceList = new LinkedList<>();
-    // Comparator to sort device list with alphabet device name order
-    private RemoteMediaPlayerComp mComparator = new RemoteMediaPlayerComp();
+    // Set the discovered devices from Discovery controller, owned by mSession
+    private DeviceRegistry mDevices;
+    // Players shown in the picker, merged from mDevices on the main thread only
+    private final List<RemoteMediaPlayer> mPickerDeviceList = new ArrayList<>();
+    // Folds discovery bursts into one picker refresh per frame
+    private PickerUpdateCoalescer mPickerUpdater;
+    // Receivers seen on earlier launches, listed before discovery finds them
+    private KnownDeviceCache mKnownDevices;
+    // Known receiver picked before discovery found it, connected once found
+    private volatile String mPendingPlayerId;
+
+    // Players following the last group fling, null if none
+    private GroupFling mGroup;
 
     // Application menu
     private Menu mMenu;
@@ -90,6 +100,16 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     private MediaSourceManager mManager;
     // ListView for Media Source list
     private ListView mMediaListView;
+    // Loads icons of the rows ahead while scrolling
+    private IconPrefetcher mIconPrefetcher;
+    // Background task loading the catalog into the list
+    private CatalogLoadTask mCatalogLoadTask;
+    // Sources in the first published batch, enough to fill the first screen
+    private static final int FIRST_CATALOG_BATCH = 10;
+    // Sources in each following batch
+    private static final int CATALOG_BATCH = 200;
+    // Maximum number of search results shown in the list
+    private static final int MAX_SEARCH_RESULTS = 500;
 
     // Progress(SeekBar) of media duration
     private SeekBar mSeekBar;
@@ -102,6 +122,9 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     private TextView mCurrentStatusView;
     private TextView mMediaTitleView;
     private boolean mMediaTitleSet = false;
+    // Subtitle of the current media, shown locally from the cached track
+    private TextView mSubtitleView;
+    private String mSubtitleUrl;
 
     // Playback buttons as ImageView
     private ImageView mBackwardButton;
@@ -118,68 +141,61 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     private static final int MAX_ERRORS = 5;
     private int mErrorCount = 0;
 
-    private DiscoveryController.IDiscoveryListener mDiscovery =
-            new DiscoveryController.IDiscoveryListener() {
+    private FlingSession.Listener mDiscovery = new FlingSession.Listener() {
 
         @Override
-        public void playerDiscovered(final RemoteMediaPlayer device) {
-            synchronized (mDeviceListAvailableLock) {
-                int threadId = android.os.Process.myTid();
-                if (mDeviceList.contains(device)) {
-                    mDeviceList.remove(device);
-                    Log.i(TAG, "["+threadId+"]"+"playerDiscovered(updating): " + device.getName());
-                } else {
-                    Log.i(TAG, "["+threadId+"]"+"playerDiscovered(adding): " + device.getName());
-                }
-                mDeviceList.add(device);
-                // start rejoining with discovered device
-                if (mLastPlayerId != null && mCurrentDevice == null) {
-                    if (device.getUniqueIdentifier().equalsIgnoreCase(mLastPlayerId)) {
-                        new UpdateSessionTask().execute(device);
+        public void onPlayerDiscovered(final RemoteMediaPlayer device, boolean added) {
+            int threadId = android.os.Process.myTid();
+            if (added) {
+                Log.i(TAG, "["+threadId+"]"+"playerDiscovered(adding): " + device.getName());
+            } else {
+                Log.i(TAG, "["+threadId+"]"+"playerDiscovered(updating): " + device.getName());
+            }
+            // connect to the known receiver picked while it was not found yet
+            if (device.getUniqueIdentifier().equals(mPendingPlayerId)) {
+                mPendingPlayerId = null;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCurrentDevice == null) {
+                            connectionUpdate(device);
+                        }
                     }
+                });
+            }
+            // start rejoining with discovered device
+            if (mLastPlayerId != null && mCurrentDevice == null) {
+                if (device.getUniqueIdentifier().equalsIgnoreCase(mLastPlayerId)) {
+                    new UpdateSessionTask().execute(device);
                 }
-                triggerUpdate();
             }
+            triggerUpdate();
         }
 
         @Override
-        public void playerLost(final RemoteMediaPlayer device) {
-            synchronized (mDeviceListAvailableLock) {
-                if (mDeviceList.contains(device)) {
-                    int threadId = android.os.Process.myTid();
-                    Log.i(TAG, "["+threadId+"]"+"playerLost(removing): " + device.getName());
-                    if (device.equals(mCurrentDevice) && mListener != null) {
-                        Log.i(TAG, "["+threadId+"]"+"playerLost(removing): " + mListener.toString());
-                        device.removeStatusListener(mListener);
-                        mCurrentDevice = null;
-                    }
-                    mDeviceList.remove(device);
-                    triggerUpdate();
+        public void onPlayerLost(final RemoteMediaPlayer device, boolean current) {
+            int threadId = android.os.Process.myTid();
+            Log.i(TAG, "["+threadId+"]"+"playerLost(removing): " + device.getName());
+            if (current) {
+                // the session already unsubscribed from it
+                synchronized (mDeviceListAvailableLock) {
+                    mCurrentDevice = null;
                 }
             }
+            triggerUpdate();
         }
 
         @Override
-        public void discoveryFailure() {
-            Log.e(TAG, "Discovery Failure");
+        public void onStatusChange(MediaPlayerStatus status, long position) {
+            StatusListener listener = mListener;
+            if (listener != null) {
+                listener.onStatusChange(status, position);
+            }
         }
 
         private void triggerUpdate() {
-            // It should be run in main thread since it is updating Adapter.
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mPickerDeviceList = mDeviceList;
-                    Collections.sort(mPickerDeviceList, mComparator);
-                    mPickerList.clear();
-                    for (RemoteMediaPlayer device : mPickerDeviceList) {
-                        mPickerList.add(device.getName());
-                    }
-                    mPickerAdapter.notifyDataSetChanged();
-                    // Calling onPrepareOptionsMenu() to update picker icon
-                    invalidateOptionsMenu();
-                }
-            });
+            // The adapter is updated in main thread, once for the whole burst.
+            mPickerUpdater.requestUpdate();
         }
     };
 
@@ -192,10 +208,17 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         getActionBar().setDisplayShowHomeEnabled(false);
         // Initialize UI resources
         mMediaTitleView = (TextView) findViewById(R.id.currentmediatitle);
+        mSubtitleView = (TextView) findViewById(R.id.currentsubtitle);
         mCurrentStatusView = (TextView) findViewById(R.id.currentstatus);
         mCurrentDuration = (TextView) findViewById(R.id.currentDuration);
         mTotalDuration = (TextView) findViewById(R.id.totalDuration);
         mMediaListView = (ListView) findViewById(R.id.mediaList);
+        mIconPrefetcher = new IconPrefetcher(mMediaListView, ImagePipeline.getDefault(this));
+        // The adapter is kept for the lifetime of the activity, see CatalogLoadTask
+        MediaListAdapter adapter = new MediaListAdapter(this,
+                new ArrayList<MediaSourceManager.MediaSource>());
+        mMediaListView.setAdapter(adapter);
+        mMediaListView.setRecyclerListener(adapter);
         mSeekBar = (SeekBar) findViewById(R.id.seekBar);
         mBackwardButton = (ImageView) findViewById(R.id.backward);
         mPlayButton = (ImageView) findViewById(R.id.play);
@@ -204,8 +227,21 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         mForwardButton = (ImageView) findViewById(R.id.forward);
         // Create MediaSourceManager
         mManager = new MediaSourceManager(this);
-        // Create DiscoveryController
-        mController = new DiscoveryController(this);
+        // Create device picker adapter, updated from discovery by mPickerUpdater
+        mPickerAdapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_list_item_activated_1, mPickerList);
+        mSession = FlingSession.getDefault(this);
+        mDevices = mSession.getRegistry();
+        mKnownDevices = mSession.getKnownDevices();
+        mPickerUpdater = new PickerUpdateCoalescer(mDevices, mDevices.getComparator(),
+                mPickerDeviceList, mPickerList, new PickerUpdateCoalescer.Callback() {
+            @Override
+            public void onPickerUpdated(int inserted, int removed, int changed) {
+                mPickerAdapter.notifyDataSetChanged();
+                // Calling onPrepareOptionsMenu() to update picker icon
+                invalidateOptionsMenu();
+            }
+        });
     }
 
     @Override
@@ -217,18 +253,28 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         mListener = new Monitor();
         // Set if last player was saved
         retrieveLastPlayerIfExist();
-        // Start Discovery Controller
-        Log.i(TAG, "onResume - start Discovery");
-        mController.start("amzn.thin.pl", mDiscovery);
-        // Set Adapter with media sources
-        mMediaListView.setAdapter(new MediaListAdapter(this, mManager.getAllSources()));
-        // Create device picker adapter
-        mPickerAdapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_list_item_activated_1, mPickerList);
+        // Start Discovery, or keep it running since the last activity detached
+        Log.i(TAG, "onResume - attach to session");
+        mSession.attach(mDiscovery);
+        // Fill the picker with the players found so far, and known receivers
+        // until discovery finds them
+        mPickerUpdater.setKnownDevices(mKnownDevices.getEntries(),
+                getString(R.string.picker_stale));
+        // Still subscribed to the player if the session outlived the last activity
+        mCurrentDevice = mSession.getCurrentDevice();
+        if (mCurrentDevice != null) {
+            new UpdateSessionTask().execute(mCurrentDevice);
+        }
+        // Load media sources in background, a reload only updates what changed
+        mCatalogLoadTask = new CatalogLoadTask();
+        mCatalogLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         // When user selects media from listView, start fling directly.
         mMediaListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                // Fetch subtitles now, so they are ready when playback starts
+                SubtitleCache.getDefault(FlingActivity.this).prefetch(
+                        (MediaSourceManager.MediaSource) adapterView.getItemAtPosition(i));
                 synchronized (mDeviceListAvailableLock) {
                     if (mCurrentDevice != null) {
                         Log.i(TAG, "setOnItemClickListener - Start fling.");
@@ -241,8 +287,7 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                             Log.i(TAG, "setOnItemClickListener - Source =" + source);
                             Log.i(TAG, "setOnItemClickListener - Start fling:target:"
                                     + mCurrentDevice.toString());
-                            JSONObject metadata = new JSONObject(source.metadata);
-                            fling(mCurrentDevice, source.url, metadata.toString());
+                            fling(mCurrentDevice, source);
                         } else {
                             Log.i(TAG, "setOnItemClickListener - Select item first");
                         }
@@ -252,6 +297,25 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                 }
             }
         });
+        // Report the visible range so the catalog can prefetch in scroll direction.
+        mMediaListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView absListView, int scrollState) {
+                mIconPrefetcher.onScrollStateChanged(scrollState);
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    probeVisibleSources();
+                }
+            }
+            @Override
+            public void onScroll(AbsListView absListView, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
+                MediaListAdapter adapter = (MediaListAdapter) mMediaListView.getAdapter();
+                if (adapter != null && totalItemCount > 0) {
+                    adapter.setVisibleRange(firstVisibleItem, visibleItemCount);
+                    mIconPrefetcher.onScroll(firstVisibleItem, visibleItemCount);
+                }
+            }
+        });
         // When user moves progress bar, seek absolute position from current player.
         mSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
@@ -275,13 +339,50 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     public boolean onCreateOptionsMenu(Menu menu) {
         this.mMenu = menu;
         getMenuInflater().inflate(R.menu.options, menu);
+        // Filter media list as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.menu_search).getActionView();
+        // Build the search index in background while the user starts typing
+        searchView.setOnSearchClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        MediaSourceManager.getSearchIndex();
+                    }
+                });
+            }
+        });
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+            @Override
+            public boolean onQueryTextChange(String query) {
+                MediaListAdapter adapter = (MediaListAdapter) mMediaListView.getAdapter();
+                if (adapter == null) {
+                    return false;
+                }
+                mMediaListView.clearChoices();
+                if (query.trim().isEmpty()) {
+                    adapter.setFilter(null);
+                } else {
+                    int[] positions = MediaSourceManager.search(query, MAX_SEARCH_RESULTS);
+                    if (positions != null) {
+                        adapter.setFilter(positions);
+                    }
+                }
+                return true;
+            }
+        });
         return true;
     }
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         MenuItem flingButton = menu.findItem(R.id.menu_fling);
-        if (mPickerDeviceList.size() > 0) {
+        if (mPickerList.size() > 0) {
             if (mCurrentDevice != null) {
                 flingButton.setIcon(R.drawable.ic_whisperplay_default_blue_light_24dp);
                 setPlaybackControllWorking(true);
@@ -295,32 +396,31 @@ public class FlingActivity extends Activity implements View.OnClickListener {
             setPickerIconVisibility(false);
             setPlaybackControllWorking(false);
         }
+        // A group needs at least two players
+        menu.findItem(R.id.menu_group_fling).setVisible(mPickerDeviceList.size() > 1);
         return true;
     }
 
     @Override
     protected void onPause() {
         Log.i(TAG, "onPause");
-        if (mCurrentDevice != null) {
-            Log.i(TAG, "onPause - removeStatusListener:mListener=" + mListener.toString());
-            try {
-                storeLastPlayer(true);
-                Log.i(TAG, "onPause - removeStatusListener: start t=" + System.currentTimeMillis());
-                mCurrentDevice.removeStatusListener(mListener).get(3000, TimeUnit.MILLISECONDS);
-                Log.i(TAG, "onPause - removeStatusListener: finish t=" + System.currentTimeMillis());
-            } catch (InterruptedException e) {
-                Log.e(TAG, "InterruptedException. msg =" + e.getMessage());
-            } catch (ExecutionException e) {
-                Log.e(TAG, "ExecutionException. msg =" + e.getMessage());
-            } catch (TimeoutException e) {
-                Log.e(TAG, "TimeoutException. msg =" + e.getMessage());
-            } finally {
-                clean();
-            }
-        } else {
-            storeLastPlayer(false);
-            clean();
+        if (mCatalogLoadTask != null) {
+            mCatalogLoadTask.cancel(false);
+            mCatalogLoadTask = null;
         }
+        mIconPrefetcher.cancelAll();
+        mKnownDevices.save();
+        Log.i(TAG, "onPause - remote calls: " + mRemoteCalls.getStats());
+        if (mGroup != null) {
+            mGroup.close();
+            mGroup = null;
+        }
+        // Kept for rejoining if the session is gone when the app comes back
+        storeLastPlayer(mCurrentDevice != null);
+        // The session keeps discovery and the player subscription for a while
+        Log.i(TAG, "onPause - detach from session");
+        mSession.detach(mDiscovery);
+        clean();
         super.onPause();
     }
 
@@ -352,6 +452,33 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     private void resetMediaTitle() {
         mMediaTitleSet = false;
         mMediaTitleView.setText(getString(R.string.empty_text));
+        resetSubtitle();
+    }
+
+    private void resetSubtitle() {
+        mSubtitleUrl = null;
+        mSubtitleView.setText(getString(R.string.empty_text));
+        mSubtitleView.setVisibility(View.GONE);
+    }
+
+    private void setSubtitleTrack(String url) {
+        mSubtitleUrl = url;
+        if (url != null) {
+            SubtitleCache.getDefault(this).prefetch(url);
+        }
+    }
+
+    private void showSubtitle(long position) {
+        SubtitleCues cues = SubtitleCache.getDefault(this).get(mSubtitleUrl);
+        if (cues == null) {
+            // Not loaded yet (or evicted), it shows from the next position update.
+            // A track that failed is only asked again after its retry delay.
+            SubtitleCache.getDefault(this).prefetch(mSubtitleUrl);
+            return;
+        }
+        String text = cues.find(position);
+        mSubtitleView.setText(text != null ? text : getString(R.string.empty_text));
+        mSubtitleView.setVisibility(text != null ? View.VISIBLE : View.GONE);
     }
 
     private void resetDuration() {
@@ -420,9 +547,8 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                                 MediaSourceManager.MediaSource source =
                                         (MediaSourceManager.MediaSource) ad.getItem(position);
                                 Log.i(TAG, "onClick - Source =" + source);
-                                JSONObject metadata = new JSONObject(source.metadata);
                                 Log.i(TAG, "onClick - fling");
-                                fling(mCurrentDevice, source.url, metadata.toString());
+                                fling(mCurrentDevice, source);
                             } else {
                                 Log.i(TAG, "onClick - Media must be selected first.");
                             }
@@ -462,7 +588,21 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                         .setAdapter(mPickerAdapter, new DialogInterface.OnClickListener() {
                             @Override
                             public void onClick(DialogInterface dialogInterface, int index) {
-                                connectionUpdate(mPickerDeviceList.get(index));
+                                KnownDeviceCache.Entry entry =
+                                        mPickerUpdater.getStaleEntry(index);
+                                if (entry == null) {
+                                    connectionUpdate(mPickerDeviceList.get(index));
+                                } else {
+                                    RemoteMediaPlayer device =
+                                            mDevices.get(entry.uniqueIdentifier);
+                                    if (device != null) {
+                                        // found since the picker was shown
+                                        connectionUpdate(device);
+                                    } else {
+                                        mPendingPlayerId = entry.uniqueIdentifier;
+                                        showToast(getString(R.string.picker_waiting, entry.name));
+                                    }
+                                }
                             }
                         })
                         .show();
@@ -481,10 +621,56 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                         .show();
                 return true;
             }
+        } else if (id == R.id.menu_group_fling) {
+            showGroupPicker();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void showGroupPicker() {
+        int selectedPosition = mMediaListView.getCheckedItemPosition();
+        if (selectedPosition < 0) {
+            showToast(getString(R.string.group_select_media));
+            return;
+        }
+        final MediaSourceManager.MediaSource source =
+                (MediaSourceManager.MediaSource) mMediaListView.getItemAtPosition(selectedPosition);
+        // Snapshot, the picker may change while the dialog is shown
+        final List<RemoteMediaPlayer> devices = new ArrayList<>(mPickerDeviceList);
+        String[] names = new String[devices.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = devices.get(i).getName();
+        }
+        final boolean[] checked = new boolean[devices.size()];
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.menu_group_fling))
+                .setMultiChoiceItems(names, checked,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int index,
+                                        boolean isChecked) {
+                        checked[index] = isChecked;
+                    }
+                })
+                .setPositiveButton(getString(R.string.btn_fling),
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        List<RemoteMediaPlayer> members = new ArrayList<>();
+                        for (int index = 0; index < checked.length; index++) {
+                            if (checked[index]) {
+                                members.add(devices.get(index));
+                            }
+                        }
+                        if (!members.isEmpty()) {
+                            flingGroup(members, source);
+                        }
+                    }
+                })
+                .show();
+    }
+
     private void connectionUpdate(final RemoteMediaPlayer target) {
         new ConnectionUpdateTask().execute(target);
     }
@@ -526,6 +712,9 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                                         convertTime(mStatus.mPosition)));
                                 mSeekBar.setProgress((int) mStatus.mPosition);
                             }
+                            if (mSubtitleUrl != null) {
+                                showSubtitle(mStatus.mPosition);
+                            }
                             mCurrentStatusView.setText(getString(R.string.media_playing));
                             setProgressVisibility(true);
                             setStatusAndTitleVisibility(true);
@@ -547,6 +736,7 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                             Log.i(TAG, "setStatusText - Finished");
                             mCurrentStatusView.setText(getString(R.string.media_done));
                             resetDuration();
+                            mSubtitleView.setVisibility(View.GONE);
                             break;
                         case Seeking:
                             Log.i(TAG, "setStatusText - Seeking");
@@ -592,7 +782,7 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                         .show();
                 if (mCurrentDevice != null) {
                     Log.e(TAG, "errorMessagePopup: removeStatusListener. set current device to null");
-                    mCurrentDevice.removeStatusListener(mListener);
+                    mSession.disconnect();
                     mCurrentDevice = null;
                 }
                 resetDuration();
@@ -622,8 +812,24 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         resetMediaTitle();
     }
 
-    private void fling(final RemoteMediaPlayer target, final String name, final String title) {
+    private void fling(final RemoteMediaPlayer target,
+                       final MediaSourceManager.MediaSource source) {
+        final String name = source.url;
+        final String title = source.getMetadataJson();
+        MediaProbe.Result probe = MediaProbe.getDefault().getCached(name);
+        if (probe != null && probe.isRefused()) {
+            Log.i(TAG, "fling - skip unreachable source: " + probe);
+            showToast(getString(R.string.media_unreachable));
+            return;
+        }
+        if (probe != null && !probe.isReachable()) {
+            // The phone could not check it, the player may still reach it
+            Log.i(TAG, "fling - source not verified: " + probe);
+            showToast(getString(R.string.media_unverified));
+        }
         initializeFling(target);
+        startSessionState(target, source);
+        setSubtitleTrack(SubtitleCache.getPreferredTrack(source.metadata.get("tracks")));
         Log.i(TAG, "try setPositionUpdateInterval: " + MONITOR_INTERVAL);
         mCurrentDevice.setPositionUpdateInterval(MONITOR_INTERVAL).getAsync(
                 new ErrorResultHandler("setPositionUpdateInterval",
@@ -634,6 +840,103 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         showToast("try Flinging...");
     }
 
+    // Replaces what was known of the player's media, title and tracks come with the source
+    private void startSessionState(RemoteMediaPlayer target,
+                                   MediaSourceManager.MediaSource source) {
+        if (target == mCurrentDevice) {
+            mCurrentUrl = source.url;
+        }
+        Object title = source.metadata.get("title");
+        mSessionState.start(target, source.url).setInfo(
+                title != null ? title.toString() : source.presentableTitle,
+                source.metadata.get("tracks"));
+    }
+
+    private void flingGroup(final List<RemoteMediaPlayer> members,
+                            final MediaSourceManager.MediaSource source) {
+        MediaProbe.Result probe = MediaProbe.getDefault().getCached(source.url);
+        if (probe != null && probe.isRefused()) {
+            Log.i(TAG, "flingGroup - skip unreachable source: " + probe);
+            showToast(getString(R.string.media_unreachable));
+            return;
+        }
+        if (probe != null && !probe.isReachable()) {
+            // The phone could not check it, the player may still reach it
+            Log.i(TAG, "flingGroup - source not verified: " + probe);
+            showToast(getString(R.string.media_unverified));
+        }
+        if (mGroup != null) {
+            mGroup.close();
+        }
+        Log.i(TAG, "flingGroup - " + members.size() + " players, url - " + source.url);
+        for (RemoteMediaPlayer member : members) {
+            startSessionState(member, source);
+        }
+        mGroup = new GroupFling(members, MONITOR_INTERVAL, GroupFling.DEFAULT_TOLERANCE_MS,
+                new GroupFling.Listener() {
+            @Override
+            public void onStarted(int started, int failed) {
+                showToast(getString(R.string.group_started, started, started + failed));
+            }
+
+            @Override
+            public void onSkew(long skewMs, int playing) {
+                Log.i(TAG, "flingGroup - skew=" + skewMs + "ms between " + playing + " players");
+            }
+        });
+        mGroup.start(source.url, source.getMetadataJson());
+        showToast("try Flinging...");
+    }
+
+    // Shows a reloaded catalog, rebinding only changed rows and keeping the scroll position
+    private void applyCatalogDiff(List<MediaSourceManager.MediaSource> catalog, CatalogDiff diff) {
+        MediaListAdapter adapter = (MediaListAdapter) mMediaListView.getAdapter();
+        int first = mMediaListView.getFirstVisiblePosition();
+        View firstRow = mMediaListView.getChildAt(0);
+        int top = firstRow != null ? firstRow.getTop() : 0;
+        int anchor = first < adapter.getCount() ? adapter.getCatalogPosition(first) : -1;
+        int checked = mMediaListView.getCheckedItemPosition();
+        int checkedSource = checked >= 0 && checked < adapter.getCount()
+                ? adapter.getCatalogPosition(checked) : -1;
+        if (!adapter.updateSources(catalog, diff)) {
+            return;
+        }
+        if (diff.isSameOrder()) {
+            // Positions are unchanged, rebind the visible rows whose source changed
+            for (int i = 0; i < mMediaListView.getChildCount(); i++) {
+                int position = first + i;
+                if (position < adapter.getCount()
+                        && diff.isChanged(adapter.getCatalogPosition(position))) {
+                    adapter.rebindView(mMediaListView.getChildAt(i), position);
+                }
+            }
+            return;
+        }
+        adapter.notifyDataSetChanged();
+        mMediaListView.clearChoices();
+        int newChecked = checkedSource >= 0
+                ? adapter.getListPosition(diff.getNewPosition(checkedSource)) : -1;
+        if (newChecked >= 0) {
+            mMediaListView.setItemChecked(newChecked, true);
+        }
+        int newFirst = anchor >= 0 ? adapter.getListPosition(diff.getNewPosition(anchor)) : -1;
+        if (newFirst >= 0) {
+            mMediaListView.setSelectionFromTop(newFirst, top);
+        }
+    }
+
+    // Checks the sources on screen in background, so dead urls are known before flinging.
+    private void probeVisibleSources() {
+        MediaListAdapter adapter = (MediaListAdapter) mMediaListView.getAdapter();
+        if (adapter == null) {
+            return;
+        }
+        int last = Math.min(mMediaListView.getLastVisiblePosition(), adapter.getCount() - 1);
+        for (int i = Math.max(mMediaListView.getFirstVisiblePosition(), 0); i <= last; i++) {
+            MediaProbe.getDefault().probe((MediaSourceManager.MediaSource) adapter.getItem(i));
+        }
+    }
+
     private void doPlay() {
         if (mCurrentDevice != null) {
             Log.i(TAG, "try doPlay...");
@@ -710,11 +1013,11 @@ public class FlingActivity extends Activity implements View.OnClickListener {
     }
 
     private void clean() {
-        Log.i(TAG, "clean - calling mController.stop()");
-        mController.stop();
         mCurrentDevice = null;
-        mDeviceList.clear();
-        mPickerDeviceList.clear();
+        mCurrentUrl = null;
+        mPendingPlayerId = null;
+        mPickerUpdater.cancel();
+        Log.i(TAG, "clean - picker updates: " + mPickerUpdater);
         resetDuration();
         resetMediaTitle();
         setStatusAndTitleVisibility(false);
@@ -738,13 +1041,22 @@ public class FlingActivity extends Activity implements View.OnClickListener {
 
         @Override
         public void onStatusChange(MediaPlayerStatus status, long position) {
-            if (mCurrentDevice != null) {
+            // Read once, clean() may clear it meanwhile
+            RemoteMediaPlayer device = mCurrentDevice;
+            if (device != null) {
                 synchronized (mStatusLock) {
                     mStatus.mState = status.getState();
                     mStatus.mCond = status.getCondition();
                     mStatus.mPosition = position;
                     Log.i(TAG, "State Change state=" + mStatus.mState
                             + " Position=" + convertTime(position));
+                    // The media is gone, the next one is asked again
+                    if (mStatus.mState == MediaState.Finished
+                            || mStatus.mState == MediaState.NoSource
+                            || mStatus.mState == MediaState.Error) {
+                        mSessionState.invalidate(device);
+                        mCurrentUrl = null;
+                    }
                     if (mStatus.mState == MediaState.ReadyToPlay) {
                         runOnUiThread(new Runnable() {
                             @Override
@@ -752,8 +1064,8 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                                 resetDuration();
                             }
                         });
-                        new TotalDurationUpdateTask().execute();
-                        new MediaTitleUpdateTask().execute();
+                        new TotalDurationUpdateTask().execute(device);
+                        new MediaTitleUpdateTask().execute(device);
                     }
                 }
                 setStatusText();
@@ -761,106 +1073,218 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         }
     }
 
-    private class ConnectionUpdateTask extends AsyncTask<RemoteMediaPlayer, Void, Integer> {
+    /*
+     Loads the catalog into the list. The first load shows the sources in
+     batches as they are parsed. Later loads (on resume) compare the catalog
+     with the shown one in background and only update the rows that changed.
+     */
+    private class CatalogLoadTask extends AsyncTask<Void, List<MediaSourceManager.MediaSource>,
+            List<MediaSourceManager.MediaSource>> {
+        private List<MediaSourceManager.MediaSource> mBatch =
+                new ArrayList<>(FIRST_CATALOG_BATCH);
+        private int mBatchSize = FIRST_CATALOG_BATCH;
+        // Sources shown when the load started, null on the first load
+        private List<MediaSourceManager.MediaSource> mShown;
+        private CatalogDiff mDiff;
+
         @Override
-        protected Integer doInBackground(RemoteMediaPlayer... remoteMediaPlayers) {
+        protected void onPreExecute() {
+            List<MediaSourceManager.MediaSource> shown =
+                    ((MediaListAdapter) mMediaListView.getAdapter()).getSources();
+            mShown = shown.isEmpty() ? null : shown;
+        }
+
+        @Override
+        protected List<MediaSourceManager.MediaSource> doInBackground(Void... voids) {
             int threadId = android.os.Process.myTid();
-            if (remoteMediaPlayers[0] != null) { // Connect
-                RemoteMediaPlayer target = remoteMediaPlayers[0];
-                try {
-                    Log.i(TAG, "[" + threadId + "]" + "ConnectionUpdateTask:addStatusListener"
-                            + ":target=" + target);
-                    target.addStatusListener(mListener).get();
-                    // Set current device after remote call succeed.
-                    mCurrentDevice = target;
-                    Log.i(TAG, "["+threadId+"]"+"ConnectionUpdateTask:set current device"
-                            +":currentDevice="+target);
-                    return 0;
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                    return 2;
-                } catch (ExecutionException e) {
-                    Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                    return 2;
-                }
-            } else { // Disconnect
-                try {
-                    if (mCurrentDevice != null) {
-                        Log.i(TAG, "["+threadId+"]"+"ConnectionUpdateTask:removeStatusListener" +
-                                ":mCurrentDevice="+mCurrentDevice+ "mListener="+mListener);
-                        mCurrentDevice.removeStatusListener(mListener).get();
+            Log.i(TAG, "["+threadId+"]"+"CatalogLoadTask:start");
+            // Sources are only reported here when the database has to be parsed.
+            // Cached or compiled catalogs are returned at once.
+            List<MediaSourceManager.MediaSource> catalog =
+                    mManager.getCatalog(new MediaSourceManager.SourceListener() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public boolean onSource(MediaSourceManager.MediaSource source) {
+                    if (mShown != null) {
+                        // Shown all at once after comparing
+                        return !isCancelled();
                     }
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                } catch (ExecutionException e) {
-                    Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                } finally {
-                    return 1;
+                    mBatch.add(source);
+                    if (mBatch.size() >= mBatchSize) {
+                        publishProgress(mBatch);
+                        mBatch = new ArrayList<>(CATALOG_BATCH);
+                        mBatchSize = CATALOG_BATCH;
+                    }
+                    return !isCancelled();
                 }
+            });
+            if (catalog != null && mShown != null && !isCancelled()) {
+                mDiff = CatalogDiff.compute(mShown, catalog);
+                Log.i(TAG, "["+threadId+"]"+"CatalogLoadTask:reload: " + mDiff);
             }
+            Log.i(TAG, "["+threadId+"]"+"CatalogLoadTask:finish");
+            return catalog;
         }
 
         @Override
-        protected void onPostExecute(Integer result) {
-            MenuItem item = mMenu.findItem(R.id.menu_fling);
-            switch (result) {
-                case 0:
-                    // after connection
-                    mErrorCount = 0;
-                    Log.i(TAG, "[main]" + "ConnectionUpdateTask:onPostExecute: connection");
-                    item.setIcon(R.drawable.ic_whisperplay_default_blue_light_24dp);
-                    invalidateOptionsMenu();
-                    new UpdateSessionTask().execute(mCurrentDevice);
-                    break;
-                case 1:
-                    // after disconnection
-                    Log.i(TAG, "[main]" + "ConnectionUpdateTask:onPostExecute: disconnection");
-                    item.setIcon(R.drawable.ic_whisperplay_default_light_24dp);
-                    mCurrentDevice = null;
-                    invalidateOptionsMenu();
-                    setProgressVisibility(false);
-                    setStatusAndTitleVisibility(false);
-                    resetDuration();
-                    resetMediaTitle();
-                    break;
-                case 2:
-                    // error handle
-                    Log.i(TAG, "[main]" + "ConnectionUpdateTask:onPostExecute: error handle");
-                    errorMessagePopup("Problem with connection. " +
-                            "Try again and check the target player.");
-                    break;
+        protected void onProgressUpdate(List<MediaSourceManager.MediaSource>... batches) {
+            if (isCancelled()) {
+                // Batches posted before onPause, the next load starts over
+                return;
+            }
+            MediaListAdapter adapter = (MediaListAdapter) mMediaListView.getAdapter();
+            for (List<MediaSourceManager.MediaSource> batch : batches) {
+                adapter.addSources(batch);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<MediaSourceManager.MediaSource> catalog) {
+            if (catalog != null) {
+                Log.i(TAG, "[main]" + "CatalogLoadTask:onPostExecute:" + catalog.size() + " sources");
+                if (mDiff != null) {
+                    applyCatalogDiff(catalog, mDiff);
+                } else {
+                    ((MediaListAdapter) mMediaListView.getAdapter()).setSources(catalog);
+                }
+                mMediaListView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        probeVisibleSources();
+                    }
+                });
+            }
+            if (mCatalogLoadTask == this) {
+                mCatalogLoadTask = null;
             }
         }
     }
 
-    private class UpdateSessionTask extends AsyncTask<RemoteMediaPlayer, Void, MediaPlayerStatus> {
-        RemoteMediaPlayer target = null;
+    /*
+     A query on a player, run by the remote call executor. Identical queries
+     in flight on the same player are sent once; every task gets the result,
+     in onBackgroundResult and then on the main thread.
+     */
+    private abstract class RemoteTask<T> implements RemoteCallExecutor.Call<T>,
+            RemoteCallExecutor.Callback<T>, RemoteCallExecutor.BackgroundResult<T> {
+        private final String mName;
+        RemoteMediaPlayer mTarget;
+        // Media the task is about, for the tasks answered from mSessionState
+        volatile String mUrl;
+
+        RemoteTask(String name) {
+            mName = name;
+        }
+
+        void execute() {
+            execute(mCurrentDevice);
+        }
+
+        void execute(RemoteMediaPlayer target) {
+            if (target != null) {
+                mTarget = target;
+                mRemoteCalls.submit(target, getCallName(), this, this);
+            }
+        }
+
+        // Tasks whose result is kept for mUrl only join queries about the same media
+        String getCallName() {
+            return mName;
+        }
+
+        // Hands a result known without asking the player to onResult on main thread
+        void deliver(final T result) {
+            Log.i(TAG, mName + ": cached");
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onResult(result);
+                }
+            });
+        }
+
         @Override
-        protected MediaPlayerStatus doInBackground(RemoteMediaPlayer... remoteMediaPlayers) {
-            target = remoteMediaPlayers[0];
-            int threadId = android.os.Process.myTid();
-            Log.i(TAG, "["+threadId+"]"+"UpdateSessionTask:found match: " + target.getName());
-            try {
-                Log.i(TAG, "["+threadId+"]"+"UpdateSessionTask:getStatus");
-                return target.getStatus().get();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                target = null;
-                return null;
-            } catch (ExecutionException e) {
-                Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                target = null;
-                return null;
+        public void onBackgroundResult(RemoteMediaPlayer device, T result) {
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            Log.e(TAG, "[main]" + mName + " failed. msg=" + error);
+            onResult(null);
+        }
+    }
+
+    private class ConnectionUpdateTask implements RemoteCallExecutor.Callback<Void> {
+        private RemoteMediaPlayer mTarget;
+
+        void execute(RemoteMediaPlayer target) {
+            if (target != null) { // Connect
+                Log.i(TAG, "ConnectionUpdateTask:addStatusListener:target=" + target);
+                mTarget = target;
+                mSession.connect(target, this);
+            } else { // Disconnect
+                Log.i(TAG, "ConnectionUpdateTask:removeStatusListener" +
+                        ":mCurrentDevice="+mCurrentDevice+ "mListener="+mListener);
+                mSession.disconnect();
+                onDisconnected();
             }
         }
 
         @Override
-        protected void onPostExecute(MediaPlayerStatus mediaPlayerStatus) {
+        public void onResult(Void result) {
+            // Set current device after remote call succeed.
+            mCurrentDevice = mTarget;
+            mCurrentUrl = null;
+            MenuItem item = mMenu.findItem(R.id.menu_fling);
+            // after connection
+            mErrorCount = 0;
+            Log.i(TAG, "[main]" + "ConnectionUpdateTask:onResult: connection");
+            item.setIcon(R.drawable.ic_whisperplay_default_blue_light_24dp);
+            invalidateOptionsMenu();
+            new UpdateSessionTask().execute(mCurrentDevice);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            // error handle
+            Log.e(TAG, "[main]" + "ConnectionUpdateTask:onError: msg=" + error);
+            errorMessagePopup("Problem with connection. " +
+                    "Try again and check the target player.");
+        }
+
+        private void onDisconnected() {
+            MenuItem item = mMenu.findItem(R.id.menu_fling);
+            Log.i(TAG, "[main]" + "ConnectionUpdateTask: disconnection");
+            item.setIcon(R.drawable.ic_whisperplay_default_light_24dp);
+            mCurrentDevice = null;
+            invalidateOptionsMenu();
+            setProgressVisibility(false);
+            setStatusAndTitleVisibility(false);
+            resetDuration();
+            resetMediaTitle();
+        }
+    }
+
+    private class UpdateSessionTask extends RemoteTask<MediaPlayerStatus> {
+        UpdateSessionTask() {
+            super("getStatus");
+        }
+
+        @Override
+        public RemoteMediaPlayer.AsyncFuture<MediaPlayerStatus> start(RemoteMediaPlayer device) {
+            Log.i(TAG, "UpdateSessionTask:found match: " + device.getName());
+            return device.getStatus();
+        }
+
+        @Override
+        public void onResult(MediaPlayerStatus mediaPlayerStatus) {
             if (mediaPlayerStatus != null) {
-                mCurrentDevice = target;
-                Log.i(TAG, "[main]" + "UpdateSessionTask:onPostExecute:set current device:"
+                mCurrentDevice = mTarget;
+                // Someone else may have flung since, the media is asked again
+                mCurrentUrl = null;
+                Log.i(TAG, "[main]" + "UpdateSessionTask:onResult:set current device:"
                         +mCurrentDevice.toString());
-                mCurrentDevice.addStatusListener(mListener);
+                mSession.rejoin(mCurrentDevice);
                 synchronized (mStatusLock) {
                     mStatus.mState = mediaPlayerStatus.getState();
                     mStatus.mCond = mediaPlayerStatus.getCondition();
@@ -872,109 +1296,149 @@ public class FlingActivity extends Activity implements View.OnClickListener {
                 setStatusAndTitleVisibility(true);
                 invalidateOptionsMenu();
             } else {
-                Log.i(TAG, "[main]" + "UpdateSessionTask:onPostExecute:skip rejoin");
+                Log.i(TAG, "[main]" + "UpdateSessionTask:onResult:skip rejoin");
             }
         }
     }
 
-    private class MediaTitleUpdateTask extends AsyncTask<Void, Void, MediaPlayerInfo> {
+    private class MediaTitleUpdateTask extends RemoteTask<MediaPlayerInfo> {
+        MediaTitleUpdateTask() {
+            super("getMediaInfo");
+        }
+
         @Override
-        protected MediaPlayerInfo doInBackground(Void... voids) {
-            int threadId = android.os.Process.myTid();
-            if (mCurrentDevice != null) {
-                try {
-                    Log.i(TAG, "["+threadId+"]"+"MediaTitleUpdateTask:getMediaInfo");
-                    return mCurrentDevice.getMediaInfo().get();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                    return null;
-                } catch (ExecutionException e) {
-                    Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                    return null;
-                }
+        void execute(RemoteMediaPlayer target) {
+            SessionStateCache.State state = target != null
+                    ? mSessionState.peek(target, mCurrentUrl) : null;
+            if (state != null && state.hasInfo()) {
+                mTarget = target;
+                mUrl = state.url;
+                deliver(null);
+            } else {
+                super.execute(target);
             }
-            return null;
         }
 
         @Override
-        protected void onPostExecute(MediaPlayerInfo result) {
-            if (result != null) {
-                try {
-                    JSONObject jobj = (JSONObject) new JSONTokener(result.getMetadata()).nextValue();
-                    Log.i(TAG, "[main]" + "MediaTitleUpdateTask:onPostExecute:set mediaTitleView");
-                    mMediaTitleView.setText((String)jobj.get("title"));
-                    setStatusAndTitleVisibility(true);
-                    mMediaTitleSet = true;
-                } catch (JSONException e) {
-                    Log.e(TAG, "Cannot parse Metadata", e);
-                }
+        public RemoteMediaPlayer.AsyncFuture<MediaPlayerInfo> start(RemoteMediaPlayer device) {
+            Log.i(TAG, "MediaTitleUpdateTask:getMediaInfo");
+            return device.getMediaInfo();
+        }
+
+        @Override
+        public void onBackgroundResult(RemoteMediaPlayer device, MediaPlayerInfo result) {
+            // Parsed here, off the main thread, and kept for the media
+            mUrl = result.getSource();
+            // The call may have been started by another task with its own player object
+            RemoteMediaPlayer current = mCurrentDevice;
+            if (current != null
+                    && current.getUniqueIdentifier().equals(device.getUniqueIdentifier())) {
+                mCurrentUrl = mUrl;
+            }
+            try {
+                JSONObject jobj = (JSONObject) new JSONTokener(result.getMetadata()).nextValue();
+                mSessionState.get(device, mUrl).setInfo(jobj.getString("title"),
+                        jobj.opt("tracks"));
+            } catch (JSONException e) {
+                Log.e(TAG, "Cannot parse Metadata", e);
             }
         }
-    }
 
-    private class CurrentPositionUpdateTask extends AsyncTask<Void, Void, Long> {
         @Override
-        protected Long doInBackground(Void... voids) {
-            if (mCurrentDevice != null) {
-                int threadId = android.os.Process.myTid();
-                try {
-                    Log.i(TAG, "["+threadId+"]"+"CurrentPositionUpdateTask:getPosition");
-                    return mCurrentDevice.getPosition().get();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                    return null;
-                } catch (ExecutionException e) {
-                    Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                    return null;
+        public void onResult(MediaPlayerInfo result) {
+            SessionStateCache.State state = mSessionState.peek(mTarget, mUrl);
+            if (state != null && state.hasInfo()) {
+                Log.i(TAG, "[main]" + "MediaTitleUpdateTask:onResult:set mediaTitleView");
+                mMediaTitleView.setText(state.getTitle());
+                // Rejoined sessions learn their subtitle track from the player
+                if (mSubtitleUrl == null) {
+                    setSubtitleTrack(SubtitleCache.getPreferredTrack(state.getTracks()));
+                }
+                setStatusAndTitleVisibility(true);
+                mMediaTitleSet = true;
+                // A rejoin learns the url here, the duration may be known for it
+                if (!mDurationSet && state.hasDuration()) {
+                    new TotalDurationUpdateTask().execute(mTarget);
                 }
             }
-            return null;
+        }
+    }
+
+    private class CurrentPositionUpdateTask extends RemoteTask<Long> {
+        CurrentPositionUpdateTask() {
+            super("getPosition");
         }
 
         @Override
-        protected void onPostExecute(Long result) {
+        public RemoteMediaPlayer.AsyncFuture<Long> start(RemoteMediaPlayer device) {
+            Log.i(TAG, "CurrentPositionUpdateTask:getPosition");
+            return device.getPosition();
+        }
+
+        @Override
+        public void onResult(Long result) {
             if (result != null) {
-                Log.i(TAG, "[main]"+"CurrentPositionUpdateTask:onPostExecute:");
+                Log.i(TAG, "[main]"+"CurrentPositionUpdateTask:onResult:");
                 mSeekBar.setProgress(result.intValue());
                 mCurrentDuration.setText(convertTime(result.intValue()));
             } else {
-                Log.i(TAG, "[main]" +"CurrentPositionUpdateTask:onPostExecute:result is null");
+                Log.i(TAG, "[main]" +"CurrentPositionUpdateTask:onResult:result is null");
             }
         }
     }
-    private class TotalDurationUpdateTask extends AsyncTask<Void, Void, Long> {
+
+    private class TotalDurationUpdateTask extends RemoteTask<Long> {
+        TotalDurationUpdateTask() {
+            super("getDuration");
+        }
+
         @Override
-        protected Long doInBackground(Void... voids) {
-            if (mCurrentDevice != null) {
-                int threadId = android.os.Process.myTid();
-                try {
-                    Log.i(TAG, "["+threadId+"]"+"TotalDurationUpdateTask:getDuration");
-                    return mCurrentDevice.getDuration().get();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "["+threadId+"]"+"InterruptedException msg=" + e);
-                    return null;
-                } catch (ExecutionException e) {
-                    Log.e(TAG, "["+threadId+"]"+"ExecutionException msg=" + e);
-                    return null;
-                }
+        void execute(RemoteMediaPlayer target) {
+            mUrl = mCurrentUrl;
+            SessionStateCache.State state = target != null
+                    ? mSessionState.peek(target, mUrl) : null;
+            if (state != null && state.hasDuration()) {
+                mTarget = target;
+                deliver(state.getDuration());
+            } else {
+                super.execute(target);
+            }
+        }
+
+        @Override
+        String getCallName() {
+            return super.getCallName() + " " + mUrl;
+        }
+
+        @Override
+        public void onBackgroundResult(RemoteMediaPlayer device, Long result) {
+            // Kept only if the media was known when asking
+            SessionStateCache.State state = mSessionState.peek(device, mUrl);
+            if (state != null && result != null) {
+                state.setDuration(result);
             }
-            return null;
         }
 
         @Override
-        protected void onPostExecute(Long result) {
+        public RemoteMediaPlayer.AsyncFuture<Long> start(RemoteMediaPlayer device) {
+            Log.i(TAG, "TotalDurationUpdateTask:getDuration");
+            return device.getDuration();
+        }
+
+        @Override
+        public void onResult(Long result) {
             if (result != null) {
-                Log.i(TAG, "[main]" + "TotalDurationUpdateTask:onPostExecute");
+                Log.i(TAG, "[main]" + "TotalDurationUpdateTask:onResult");
                 mMediaDuration = result;
                 mSeekBar.setMax(result.intValue());
                 if (mMediaDuration > 0) {
-                    Log.i(TAG, "[main]" + "TotalDurationUpdateTask:onPostExecute:setTotalDuration");
+                    Log.i(TAG, "[main]" + "TotalDurationUpdateTask:onResult:setTotalDuration");
                     mTotalDuration.setText(String.valueOf(convertTime(mMediaDuration)));
                 }
                 mDurationSet = true;
                 setProgressVisibility(true);
             } else {
-                Log.i(TAG, "[main]" +"TotalDurationUpdateTask:onPostExecute:result is null");
+                Log.i(TAG, "[main]" +"TotalDurationUpdateTask:onResult:result is null");
             }
         }
     }
@@ -1009,11 +1473,4 @@ public class FlingActivity extends Activity implements View.OnClickListener {
         }
     }
 
-    private static class RemoteMediaPlayerComp implements Comparator<RemoteMediaPlayer> {
-        @Override
-        public int compare(RemoteMediaPlayer player1, RemoteMediaPlayer player2) {
-            return player1.getName().compareTo(player2.getName());
-        }
-    }
-
 }
@@ -0,0 +1,286 @@
+/**
+ * FlingSession.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.amazon.whisperplay.fling.media.controller.DiscoveryController;
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.StatusListener;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+/*
+ Discovery and the connection to the current player, kept for the process.
+
+ Activities attach while they are shown and detach when they pause. Discovery
+ starts with the first attach and keeps running while any activity is
+ attached; after the last detach it goes on for the idle timeout, so a
+ rotation or a quick switch to another app finds the players and the
+ subscription to the current player as they were. When the timeout passes,
+ discovery stops, the current player is unsubscribed and the players are
+ forgotten.
+
+ The session subscribes to the current player with its own status listener
+ and forwards the status to the attached listeners.
+ */
+public class FlingSession {
+
+    private static final String TAG = FlingSession.class.getName();
+
+    private static final String SERVICE_ID = "amzn.thin.pl";
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private static FlingSession sDefault;
+
+    public interface Listener {
+        /*
+         Called on a discovery thread after the registry changed.
+         */
+        void onPlayerDiscovered(RemoteMediaPlayer device, boolean added);
+
+        /*
+         Called on a discovery thread after the registry changed. current is
+         true if the player was the current one, it has been unsubscribed.
+         */
+        void onPlayerLost(RemoteMediaPlayer device, boolean current);
+
+        /*
+         Status of the current player.
+         */
+        void onStatusChange(MediaPlayerStatus status, long position);
+    }
+
+    private final DiscoveryController mController;
+    private final DeviceRegistry mDevices = new DeviceRegistry(new RemoteMediaPlayerComp());
+    private final KnownDeviceCache mKnownDevices;
+    private final long mIdleTimeoutMs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Main thread only
+    private int mAttached;
+    private boolean mDiscovering;
+
+    // Guards changes of mCurrentDevice
+    private final Object mLock = new Object();
+    private volatile RemoteMediaPlayer mCurrentDevice;
+
+    public FlingSession(Context context, long idleTimeoutMs) {
+        mController = new DiscoveryController(context.getApplicationContext());
+        mKnownDevices = new KnownDeviceCache(context);
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    public static synchronized FlingSession getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new FlingSession(context, DEFAULT_IDLE_TIMEOUT_MS);
+        }
+        return sDefault;
+    }
+
+    public DeviceRegistry getRegistry() {
+        return mDevices;
+    }
+
+    public KnownDeviceCache getKnownDevices() {
+        return mKnownDevices;
+    }
+
+    public RemoteMediaPlayer getCurrentDevice() {
+        return mCurrentDevice;
+    }
+
+    /*
+     Starts forwarding to listener, and discovery if it is not running. Main thread.
+     */
+    public void attach(Listener listener) {
+        mListeners.add(listener);
+        mAttached++;
+        mMainHandler.removeCallbacks(mIdleShutdown);
+        if (!mDiscovering) {
+            Log.i(TAG, "attach - start Discovery");
+            mController.start(SERVICE_ID, mDiscovery);
+            mDiscovering = true;
+        }
+        Log.i(TAG, "attach - attached=" + mAttached);
+    }
+
+    /*
+     Stops forwarding to listener. Discovery stops after the idle timeout if
+     nothing attaches again. Main thread.
+     */
+    public void detach(Listener listener) {
+        if (!mListeners.remove(listener)) {
+            return;
+        }
+        mAttached--;
+        if (mAttached == 0) {
+            mMainHandler.postDelayed(mIdleShutdown, mIdleTimeoutMs);
+        }
+        Log.i(TAG, "detach - attached=" + mAttached);
+    }
+
+    /*
+     Subscribes to target and makes it the current player once the player
+     answered. callback is called on the main thread.
+     */
+    public void connect(final RemoteMediaPlayer target,
+                        final RemoteCallExecutor.Callback<Void> callback) {
+        final long start = SystemClock.uptimeMillis();
+        RemoteCallExecutor.getDefault().submit(target, "addStatusListener",
+                new RemoteCallExecutor.Call<Void>() {
+            @Override
+            public RemoteMediaPlayer.AsyncFuture<Void> start(RemoteMediaPlayer device) {
+                return device.addStatusListener(mStatusForwarder);
+            }
+        }, new RemoteCallExecutor.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                mKnownDevices.connected(target, SystemClock.uptimeMillis() - start);
+                setCurrent(target);
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                callback.onError(error);
+            }
+        });
+    }
+
+    /*
+     Makes target the current player without waiting for the subscription,
+     e.g. when rejoining a player that is already playing. Nothing is sent
+     if the session is still subscribed to target, e.g. after a rotation.
+     */
+    public void rejoin(RemoteMediaPlayer target) {
+        if (isCurrent(target)) {
+            Log.d(TAG, "rejoin - still subscribed to " + target.getName());
+            return;
+        }
+        target.addStatusListener(mStatusForwarder);
+        setCurrent(target);
+    }
+
+    private boolean isCurrent(RemoteMediaPlayer target) {
+        RemoteMediaPlayer current = mCurrentDevice;
+        return current != null && isSamePlayer(current, target);
+    }
+
+    // Rediscovery hands out new objects for the same player, they are told apart by id
+    private static boolean isSamePlayer(RemoteMediaPlayer a, RemoteMediaPlayer b) {
+        return a.getUniqueIdentifier().equals(b.getUniqueIdentifier());
+    }
+
+    /*
+     Unsubscribes from the current player. Returns the pending request, or
+     null if there is no current player.
+     */
+    public Future<Void> disconnect() {
+        RemoteMediaPlayer current;
+        synchronized (mLock) {
+            current = mCurrentDevice;
+            mCurrentDevice = null;
+        }
+        if (current == null) {
+            return null;
+        }
+        Log.i(TAG, "disconnect - " + current.getName());
+        return current.removeStatusListener(mStatusForwarder);
+    }
+
+    private void setCurrent(RemoteMediaPlayer target) {
+        RemoteMediaPlayer previous;
+        synchronized (mLock) {
+            previous = mCurrentDevice;
+            mCurrentDevice = target;
+        }
+        if (previous != null && !isSamePlayer(previous, target)) {
+            previous.removeStatusListener(mStatusForwarder);
+        }
+    }
+
+    private final Runnable mIdleShutdown = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "idle - stop Discovery");
+            mController.stop();
+            mDiscovering = false;
+            disconnect();
+            mDevices.clear();
+            mKnownDevices.save();
+        }
+    };
+
+    private final StatusListener mStatusForwarder = new StatusListener() {
+        @Override
+        public void onStatusChange(MediaPlayerStatus status, long position) {
+            for (Listener listener : mListeners) {
+                listener.onStatusChange(status, position);
+            }
+        }
+    };
+
+    private final DiscoveryController.IDiscoveryListener mDiscovery =
+            new DiscoveryController.IDiscoveryListener() {
+        @Override
+        public void playerDiscovered(RemoteMediaPlayer device) {
+            boolean added = mDevices.put(device);
+            mKnownDevices.seen(device);
+            for (Listener listener : mListeners) {
+                listener.onPlayerDiscovered(device, added);
+            }
+        }
+
+        @Override
+        public void playerLost(RemoteMediaPlayer device) {
+            if (!mDevices.remove(device)) {
+                return;
+            }
+            boolean current = false;
+            synchronized (mLock) {
+                if (mCurrentDevice != null && mCurrentDevice.getUniqueIdentifier()
+                        .equals(device.getUniqueIdentifier())) {
+                    mCurrentDevice.removeStatusListener(mStatusForwarder);
+                    mCurrentDevice = null;
+                    current = true;
+                }
+            }
+            for (Listener listener : mListeners) {
+                listener.onPlayerLost(device, current);
+            }
+        }
+
+        @Override
+        public void discoveryFailure() {
+            Log.e(TAG, "Discovery Failure");
+        }
+    };
+
+    private static class RemoteMediaPlayerComp implements Comparator<RemoteMediaPlayer> {
+        @Override
+        public int compare(RemoteMediaPlayer player1, RemoteMediaPlayer player2) {
+            int result = player1.getName().compareTo(player2.getName());
+            // Players with the same name keep a stable order
+            return result != 0 ? result
+                    : player1.getUniqueIdentifier().compareTo(player2.getUniqueIdentifier());
+        }
+    }
+}
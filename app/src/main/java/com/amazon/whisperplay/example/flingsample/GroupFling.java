@@ -0,0 +1,266 @@
+/**
+ * GroupFling.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer.FutureListener;
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.PlayerSeekMode;
+import com.amazon.whisperplay.fling.media.service.CustomMediaPlayer.StatusListener;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus;
+import com.amazon.whisperplay.fling.media.service.MediaPlayerStatus.MediaState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*
+ Flings one media source to several players at once and keeps them aligned.
+
+ The source is set on every member in parallel without autoplay; once all
+ members answered, play is sent to the ones that succeeded, back to back, so
+ they start as close together as the network allows. No call blocks, the
+ results are collected from the futures' callbacks.
+
+ Each status report of a playing member gives its offset: the time at which
+ it played position 0, i.e. report time minus position. The skew of the
+ group is the spread of the offsets. With a tolerance set, a member whose
+ offset is further than the tolerance from the median is sought to where
+ the median says it should be, at most once per correction interval.
+ */
+public class GroupFling {
+
+    private static final String TAG = GroupFling.class.getName();
+
+    public static final long DEFAULT_TOLERANCE_MS = 500;
+    // Leaves a seek time to show its effect before correcting again
+    private static final long CORRECTION_INTERVAL_MS = 5000;
+    // Reports older than this many update intervals are left out of the skew
+    private static final int STALE_INTERVALS = 3;
+
+    public interface Listener {
+        /*
+         Called once play was sent to every member that accepted the source.
+         */
+        void onStarted(int started, int failed);
+
+        /*
+         Called after a status report when at least two members are playing.
+         */
+        void onSkew(long skewMs, int playing);
+    }
+
+    private class Member implements StatusListener {
+        final RemoteMediaPlayer mDevice;
+        boolean mFailed;
+        MediaState mState;
+        long mOffset;
+        long mReportTime;
+        long mLastCorrection = -CORRECTION_INTERVAL_MS;
+
+        Member(RemoteMediaPlayer device) {
+            mDevice = device;
+        }
+
+        @Override
+        public void onStatusChange(MediaPlayerStatus status, long position) {
+            onStatus(this, status.getState(), position);
+        }
+    }
+
+    private final List<Member> mMembers = new ArrayList<>();
+    private final long mUpdateIntervalMs;
+    private final long mToleranceMs;
+    private final Listener mListener;
+
+    private int mPending;
+    private int mStarted;
+    private int mCorrections;
+    private long mSkew = -1;
+    private boolean mClosed;
+
+    /*
+     A tolerance of zero only measures the skew, it never seeks.
+     */
+    public GroupFling(List<RemoteMediaPlayer> devices, long updateIntervalMs, long toleranceMs,
+                      Listener listener) {
+        for (RemoteMediaPlayer device : devices) {
+            mMembers.add(new Member(device));
+        }
+        mUpdateIntervalMs = updateIntervalMs;
+        mToleranceMs = toleranceMs;
+        mListener = listener;
+    }
+
+    public void start(String url, String metadataJson) {
+        synchronized (this) {
+            mPending = mMembers.size();
+        }
+        for (final Member member : mMembers) {
+            Log.i(TAG, "start - setMediaSource: " + member.mDevice.getName());
+            member.mDevice.addStatusListener(member).getAsync(
+                    new Result(member, "addStatusListener"));
+            member.mDevice.setPositionUpdateInterval(mUpdateIntervalMs).getAsync(
+                    new Result(member, "setPositionUpdateInterval"));
+            member.mDevice.setMediaSource(url, metadataJson, false, false).getAsync(
+                    new Result(member, "setMediaSource") {
+                @Override
+                void onResult(boolean succeeded) {
+                    member.mFailed = !succeeded;
+                    if (--mPending == 0) {
+                        play();
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     Stops following the members. Playback goes on.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        for (Member member : mMembers) {
+            member.mDevice.removeStatusListener(member);
+        }
+    }
+
+    public synchronized long getSkew() {
+        return mSkew;
+    }
+
+    public synchronized int getCorrectionCount() {
+        return mCorrections;
+    }
+
+    public synchronized String toString() {
+        return mMembers.size() + " members, " + mStarted + " started, skew=" + mSkew
+                + "ms, corrections=" + mCorrections;
+    }
+
+    // Called with the lock held, once every member answered setMediaSource
+    private void play() {
+        if (mClosed) {
+            return;
+        }
+        final int failed = mMembers.size() - countAccepted();
+        mPending = mMembers.size() - failed;
+        if (mPending == 0) {
+            mListener.onStarted(0, failed);
+            return;
+        }
+        for (final Member member : mMembers) {
+            if (member.mFailed) {
+                continue;
+            }
+            member.mDevice.play().getAsync(new Result(member, "play") {
+                @Override
+                void onResult(boolean succeeded) {
+                    member.mFailed = !succeeded;
+                    if (succeeded) {
+                        mStarted++;
+                    }
+                    if (--mPending == 0) {
+                        Log.i(TAG, "play - " + GroupFling.this);
+                        mListener.onStarted(mStarted, mMembers.size() - mStarted);
+                    }
+                }
+            });
+        }
+    }
+
+    private int countAccepted() {
+        int count = 0;
+        for (Member member : mMembers) {
+            if (!member.mFailed) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized void onStatus(Member member, MediaState state, long position) {
+        if (mClosed) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        member.mState = state;
+        member.mOffset = now - position;
+        member.mReportTime = now;
+        if (state != MediaState.Playing) {
+            return;
+        }
+        long[] offsets = new long[mMembers.size()];
+        int playing = 0;
+        for (Member other : mMembers) {
+            if (other.mState == MediaState.Playing
+                    && now - other.mReportTime <= STALE_INTERVALS * mUpdateIntervalMs) {
+                offsets[playing++] = other.mOffset;
+            }
+        }
+        if (playing < 2) {
+            return;
+        }
+        Arrays.sort(offsets, 0, playing);
+        mSkew = offsets[playing - 1] - offsets[0];
+        mListener.onSkew(mSkew, playing);
+        long median = offsets[playing / 2];
+        if (mToleranceMs > 0 && Math.abs(member.mOffset - median) > mToleranceMs
+                && now - member.mLastCorrection >= CORRECTION_INTERVAL_MS) {
+            long target = now - median;
+            Log.i(TAG, "onStatus - correct " + member.mDevice.getName() + " by "
+                    + (target - position) + "ms");
+            member.mLastCorrection = now;
+            mCorrections++;
+            member.mDevice.seek(PlayerSeekMode.Absolute, target).getAsync(
+                    new Result(member, "seek"));
+        }
+    }
+
+    // Logs the outcome of a remote call, then hands it to onResult with the lock held
+    private class Result implements FutureListener<Void> {
+        private final Member mMember;
+        private final String mCommand;
+
+        Result(Member member, String command) {
+            mMember = member;
+            mCommand = command;
+        }
+
+        @Override
+        public void futureIsNow(Future<Void> result) {
+            boolean succeeded;
+            try {
+                result.get();
+                succeeded = true;
+            } catch (ExecutionException e) {
+                Log.e(TAG, mCommand + " failed on " + mMember.mDevice.getName() + ": "
+                        + e.getCause());
+                succeeded = false;
+            } catch (Exception e) {
+                Log.e(TAG, mCommand + " failed on " + mMember.mDevice.getName() + ": " + e);
+                succeeded = false;
+            }
+            synchronized (GroupFling.this) {
+                onResult(succeeded);
+            }
+        }
+
+        void onResult(boolean succeeded) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * IconPrefetcher.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Loads the icons of the rows about to scroll into the media list.
+
+ The list reports its scroll position, from which the direction and speed
+ are derived. Icons of the next rows in the scroll direction are loaded
+ into the ImagePipeline caches, a few at a time, so they are in memory when
+ the rows are bound. While flinging faster than the threshold, the rows
+ ahead would be passed before their icons arrive: prefetching pauses until
+ the list slows down. Nothing is done until the first visible row changes,
+ and the prefetches are tracked by row, so scrolling within a row neither
+ allocates nor reads the adapter. Must be used on the main thread.
+ */
+public class IconPrefetcher {
+
+    // Rows ahead of the visible ones to prefetch
+    public static final int DEFAULT_ROWS_AHEAD = 10;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    // Rows per second
+    public static final float DEFAULT_VELOCITY_THRESHOLD = 20f;
+
+    private final ListView mListView;
+    private final ImagePipeline mPipeline;
+    private final int mRowsAhead;
+    private final int mMaxInFlight;
+    private final float mVelocityThreshold;
+
+    // Prefetches started, at most mMaxInFlight
+    private final List<Done> mInFlight;
+    private int mFirstVisible = -1;
+    private int mVisibleCount;
+    private long mLastMoveTime;
+    // Signed, positive when scrolling down
+    private float mVelocity;
+    private int mScrollState = AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
+
+    public IconPrefetcher(ListView listView, ImagePipeline pipeline) {
+        this(listView, pipeline, DEFAULT_ROWS_AHEAD, DEFAULT_MAX_IN_FLIGHT,
+                DEFAULT_VELOCITY_THRESHOLD);
+    }
+
+    public IconPrefetcher(ListView listView, ImagePipeline pipeline, int rowsAhead,
+                          int maxInFlight, float velocityThreshold) {
+        mListView = listView;
+        mPipeline = pipeline;
+        mRowsAhead = rowsAhead;
+        mMaxInFlight = maxInFlight;
+        mVelocityThreshold = velocityThreshold;
+        mInFlight = new ArrayList<>(maxInFlight);
+    }
+
+    public void onScrollStateChanged(int scrollState) {
+        mScrollState = scrollState;
+        if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+            mVelocity = Math.signum(mVelocity);
+        }
+        update();
+    }
+
+    public void onScroll(int firstVisible, int visibleCount) {
+        if (firstVisible == mFirstVisible && visibleCount == mVisibleCount) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (firstVisible != mFirstVisible) {
+            if (mFirstVisible >= 0 && now > mLastMoveTime) {
+                mVelocity = (firstVisible - mFirstVisible) * 1000f / (now - mLastMoveTime);
+            }
+            mFirstVisible = firstVisible;
+            mLastMoveTime = now;
+        }
+        mVisibleCount = visibleCount;
+        update();
+    }
+
+    /*
+     Withdraws every prefetch, e.g. when the list goes away.
+     */
+    public void cancelAll() {
+        for (int i = 0; i < mInFlight.size(); i++) {
+            Done done = mInFlight.get(i);
+            mPipeline.cancelPrefetch(done.mUrl, done);
+        }
+        mInFlight.clear();
+        mFirstVisible = -1;
+        mVelocity = 0;
+    }
+
+    private boolean isPaused() {
+        return mScrollState == AbsListView.OnScrollListener.SCROLL_STATE_FLING
+                && Math.abs(mVelocity) > mVelocityThreshold;
+    }
+
+    private void update() {
+        ListAdapter adapter = mListView.getAdapter();
+        if (adapter == null || mFirstVisible < 0) {
+            return;
+        }
+        if (isPaused()) {
+            cancelOutside(0, -1);
+            return;
+        }
+        // Rows ahead in scroll direction, nearest first
+        int step = mVelocity < 0 ? -1 : 1;
+        int start = step > 0 ? mFirstVisible + mVisibleCount : mFirstVisible - 1;
+        int count = adapter.getCount();
+        int from = step > 0 ? start : Math.max(start - mRowsAhead + 1, 0);
+        int to = step > 0 ? Math.min(start + mRowsAhead - 1, count - 1) : start;
+        cancelOutside(from, to);
+        for (int position = start; position >= from && position <= to
+                && mInFlight.size() < mMaxInFlight; position += step) {
+            if (isInFlight(position, null)) {
+                continue;
+            }
+            String url = ((MediaSourceManager.MediaSource) adapter.getItem(position))
+                    .getRow().iconUrl;
+            if (url == null || isInFlight(-1, url)) {
+                continue;
+            }
+            Done done = new Done(url, position);
+            if (mPipeline.prefetch(url, done)) {
+                mInFlight.add(done);
+            }
+        }
+    }
+
+    private boolean isInFlight(int position, String url) {
+        for (int i = 0; i < mInFlight.size(); i++) {
+            Done done = mInFlight.get(i);
+            if (done.mPosition == position || done.mUrl.equals(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Withdraws the prefetches of rows outside [from, to]
+    private void cancelOutside(int from, int to) {
+        for (int i = mInFlight.size() - 1; i >= 0; i--) {
+            Done done = mInFlight.get(i);
+            if (done.mPosition < from || done.mPosition > to) {
+                mPipeline.cancelPrefetch(done.mUrl, done);
+                mInFlight.remove(i);
+            }
+        }
+    }
+
+    private class Done implements Runnable {
+        private final String mUrl;
+        // Row the prefetch was started for
+        private final int mPosition;
+
+        Done(String url, int position) {
+            mUrl = url;
+            mPosition = position;
+        }
+
+        @Override
+        public void run() {
+            if (mInFlight.remove(this)) {
+                update();
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * ImageDiskCache.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Size-bounded disk cache of downloaded files, least recently used first out.
+
+ Entries are files named by the hash of their url. The order of use and the
+ sizes are kept in a journal of one line per operation:
+   W <key> <length>   file written
+   R <key>            file read
+   D <key>            file deleted
+ so opening the cache does not need to stat every file. Once most lines are
+ outdated the journal is rewritten with one W line per entry.
+ */
+public class ImageDiskCache {
+
+    private static final String TAG = ImageDiskCache.class.getName();
+
+    private static final String JOURNAL = "journal";
+    private static final int MIN_REDUNDANT_OPS = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    // Key to file length, in access order
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private long mSize;
+    private int mJournalLines;
+    private Writer mJournal;
+
+    public ImageDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /*
+     Returns the cached file for url and marks it as recently used, or null.
+     */
+    public synchronized File get(String url) throws IOException {
+        open();
+        String key = keyOf(url);
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, key);
+        if (!file.exists()) {
+            removeEntry(key);
+            return null;
+        }
+        record("R", key, -1);
+        return file;
+    }
+
+    /*
+     Stores the content of in as the file for url and returns it. The data is
+     written to a temporary file first, readers never see partial files.
+     */
+    public File put(String url, InputStream in) throws IOException {
+        synchronized (this) {
+            open();
+        }
+        String key = keyOf(url);
+        File file = new File(mDirectory, key);
+        File tmpFile = new File(mDirectory, key + ".tmp" + Thread.currentThread().getId());
+        long length = 0;
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        } finally {
+            out.close();
+        }
+        synchronized (this) {
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+            }
+            Long previous = mEntries.put(key, length);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += length;
+            record("W", key, length);
+            trim();
+        }
+        return file;
+    }
+
+    /*
+     Drops the entry of url, e.g. when its file turned out to be corrupt.
+     */
+    public synchronized void remove(String url) throws IOException {
+        open();
+        removeEntry(keyOf(url));
+    }
+
+    public synchronized long size() throws IOException {
+        open();
+        return mSize;
+    }
+
+    private void removeEntry(String key) throws IOException {
+        Long length = mEntries.remove(key);
+        if (length == null) {
+            return;
+        }
+        mSize -= length;
+        new File(mDirectory, key).delete();
+        record("D", key, -1);
+    }
+
+    private void trim() throws IOException {
+        Iterator<Map.Entry<String, Long>> itr = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && itr.hasNext()) {
+            Map.Entry<String, Long> eldest = itr.next();
+            itr.remove();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            record("D", eldest.getKey(), -1);
+        }
+    }
+
+    private void record(String op, String key, long length) throws IOException {
+        mJournal.write(length >= 0 ? op + " " + key + " " + length + "\n" : op + " " + key + "\n");
+        mJournal.flush();
+        mJournalLines++;
+        // Lines not describing a current entry are outdated
+        int redundant = mJournalLines - mEntries.size();
+        if (redundant >= MIN_REDUNDANT_OPS && redundant >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    // Reads the journal once, on first use
+    private void open() throws IOException {
+        if (mJournal != null) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File journal = new File(mDirectory, JOURNAL);
+        int lines = 0;
+        if (journal.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journal), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    readRecord(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        mSize = 0;
+        for (Long length : mEntries.values()) {
+            mSize += length;
+        }
+        mJournalLines = lines;
+        if (lines == 0 || lines - mEntries.size() >= MIN_REDUNDANT_OPS) {
+            rebuildJournal();
+        } else {
+            mJournal = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journal, true), UTF_8));
+        }
+        Log.i(TAG, "Opened " + mDirectory + ", " + mEntries.size() + " entries, "
+                + mSize + " bytes.");
+    }
+
+    private void readRecord(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            return;
+        }
+        switch (parts[0]) {
+            case "W":
+                if (parts.length == 3) {
+                    try {
+                        mEntries.put(parts[1], Long.parseLong(parts[2]));
+                    } catch (NumberFormatException e) {
+                        Log.e(TAG, "Skipping invalid journal line. " + e.toString());
+                    }
+                }
+                break;
+            case "R":
+                // Moves the entry to the end of the access order
+                mEntries.get(parts[1]);
+                break;
+            case "D":
+                mEntries.remove(parts[1]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Writes one line per entry, in access order, and replaces the journal
+    private void rebuildJournal() throws IOException {
+        if (mJournal != null) {
+            mJournal.close();
+        }
+        File journal = new File(mDirectory, JOURNAL);
+        File tmpJournal = new File(mDirectory, JOURNAL + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmpJournal), UTF_8));
+        try {
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write("W " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpJournal.renameTo(journal)) {
+            tmpJournal.delete();
+            throw new IOException("Cannot rename " + tmpJournal + " to " + journal);
+        }
+        mJournalLines = mEntries.size();
+        mJournal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journal, true), UTF_8));
+    }
+
+    private static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ * ImagePipeline.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ Loads catalog icons into list rows.
+
+ Bitmaps are looked up in a memory LRU bounded in bytes, then in a disk cache
+ (see ImageDiskCache), and only then downloaded. They are decoded at the size
+ of the icon view rather than their full size. Rows asking for the same url
+ share one request, and a row rebound to another url before its icon arrived
+ drops its request, which is cancelled if no other row waits for it.
+ The newest requests are served first, they are the rows on screen.
+ Prefetches (see IconPrefetcher) only run when no row is waiting.
+
+ Bitmaps evicted from memory are decoded into again once no row shows them
+ (see BitmapPool). Views a list moves to its scrap heap must be passed to
+ recycle(), so their bitmaps can be reused.
+
+ load(), prefetch() and cancel() must be called on the main thread.
+ */
+public class ImagePipeline {
+
+    private static final String TAG = ImagePipeline.class.getName();
+
+    private static final int THREADS = 3;
+    private static final long DISK_BYTES = 32 * 1024 * 1024L;
+    private static final int TIMEOUT_MS = 10000;
+    private static final String DIRECTORY = "images";
+
+    private static ImagePipeline sDefault;
+
+    /*
+     Counters since the pipeline was created.
+     */
+    public static class Metrics {
+        public int memoryHits;
+        public int memoryMisses;
+        public int diskHits;
+        public int downloads;
+        public int failures;
+        // Loads served by a request already in flight
+        public int coalesced;
+        public int cancelled;
+        public int decodes;
+        public long decodeMillis;
+        public BitmapPool.Stats pool;
+
+        public float getMemoryHitRate() {
+            int lookups = memoryHits + memoryMisses;
+            return lookups > 0 ? (float) memoryHits / lookups : 0;
+        }
+
+        public float getDiskHitRate() {
+            int lookups = diskHits + downloads;
+            return lookups > 0 ? (float) diskHits / lookups : 0;
+        }
+
+        public float getAverageDecodeMillis() {
+            return decodes > 0 ? (float) decodeMillis / decodes : 0;
+        }
+
+        public String toString() {
+            return "memory hits=" + memoryHits + " misses=" + memoryMisses
+                    + ", disk hits=" + diskHits + " downloads=" + downloads
+                    + ", failures=" + failures + ", coalesced=" + coalesced
+                    + ", cancelled=" + cancelled + ", decodes=" + decodes
+                    + " avg=" + getAverageDecodeMillis() + "ms, pool " + pool;
+        }
+    }
+
+    // Bitmaps for one url and the views and prefetches waiting for them
+    private class Request implements Runnable {
+        final String mUrl;
+        final List<ImageView> mTargets = new ArrayList<>(1);
+        final List<Runnable> mCallbacks = new ArrayList<>(1);
+        Task mTask;
+
+        Request(String url) {
+            mUrl = url;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = fetch(mUrl);
+            if (bitmap != null) {
+                // Held until delivered, so an eviction meanwhile does not pool it
+                retain(bitmap);
+                mMemory.put(mUrl, bitmap);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, bitmap);
+                }
+            });
+        }
+    }
+
+    // Queued request, prefetches go behind requests of visible rows
+    private static class Task extends FutureTask<Void> {
+        volatile boolean mPrefetch;
+
+        Task(Runnable request, boolean prefetch) {
+            super(request, null);
+            mPrefetch = prefetch;
+        }
+    }
+
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final LruCache<String, Bitmap> mMemory;
+    private final BitmapPool mPool;
+    private final ImageDiskCache mDisk;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Main thread only
+    private final Map<String, Request> mRequests = new HashMap<>();
+    private final Map<ImageView, Request> mTargets = new WeakHashMap<>();
+    private final Map<ImageView, Bitmap> mShown = new WeakHashMap<>();
+    // Users of each bitmap: views showing it and pending deliveries
+    private final Map<Bitmap, Integer> mUsers = new IdentityHashMap<>();
+    // Bitmaps evicted from memory while in use, pooled once unused
+    private final Set<Bitmap> mEvicted =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mMemoryMisses = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mDownloads = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicInteger mCoalesced = new AtomicInteger();
+    private final AtomicInteger mCancelled = new AtomicInteger();
+    private final AtomicInteger mDecodes = new AtomicInteger();
+    private final AtomicLong mDecodeMillis = new AtomicLong();
+
+    public ImagePipeline(File directory, int targetWidth, int targetHeight, int memoryBytes,
+                         int poolBytes) {
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mDisk = new ImageDiskCache(directory, DISK_BYTES);
+        mPool = new BitmapPool(poolBytes);
+        mMemory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String url, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                if (oldBitmap != newBitmap) {
+                    onRemoved(oldBitmap);
+                }
+            }
+        };
+        // Last in, first out: rows just bound are the ones on screen.
+        // Prefetches queue at the other end.
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                if (runnable instanceof Task && ((Task) runnable).mPrefetch) {
+                    return offerLast(runnable);
+                }
+                return offerFirst(runnable);
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     Pipeline for the media list icons, sized to R.dimen.media_icon_size. The
+     memory cache takes an eighth of the heap and the pool a quarter of that,
+     both are trimmed when the system runs low on memory.
+     */
+    public static synchronized ImagePipeline getDefault(Context context) {
+        if (sDefault == null) {
+            int size = context.getResources().getDimensionPixelSize(R.dimen.media_icon_size);
+            int memory = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+            final ImagePipeline pipeline = new ImagePipeline(
+                    new File(context.getCacheDir(), DIRECTORY), size, size, memory, memory / 4);
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    pipeline.onTrimMemory(level);
+                }
+
+                @Override
+                public void onLowMemory() {
+                    pipeline.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration configuration) {
+                }
+            });
+            sDefault = pipeline;
+        }
+        return sDefault;
+    }
+
+    /*
+     Shows the image of url in view, or placeholder until it is loaded or if
+     url is null. Replaces any load pending for view.
+     */
+    public void load(String url, ImageView view, int placeholder) {
+        cancel(view);
+        if (url == null) {
+            showPlaceholder(view, placeholder);
+            return;
+        }
+        synchronized (mUsers) {
+            // Shown before an eviction on a loading thread can pool it
+            Bitmap bitmap = mMemory.get(url);
+            if (bitmap != null) {
+                mMemoryHits.incrementAndGet();
+                show(view, bitmap);
+                return;
+            }
+        }
+        mMemoryMisses.incrementAndGet();
+        showPlaceholder(view, placeholder);
+        Request request = mRequests.get(url);
+        if (request == null) {
+            request = submit(url, false);
+        } else {
+            mCoalesced.incrementAndGet();
+            if (request.mTask.mPrefetch) {
+                // A row needs it now, move it to the front of the queue
+                request.mTask.mPrefetch = false;
+                if (mExecutor.remove(request.mTask)) {
+                    mExecutor.execute(request.mTask);
+                }
+            }
+        }
+        request.mTargets.add(view);
+        mTargets.put(view, request);
+    }
+
+    /*
+     Loads url into the caches without showing it. done runs on the main thread
+     once the load finished, unless the image is already in memory: then
+     nothing is loaded and false is returned.
+     */
+    public boolean prefetch(String url, Runnable done) {
+        if (mMemory.get(url) != null) {
+            return false;
+        }
+        Request request = mRequests.get(url);
+        if (request == null) {
+            request = submit(url, true);
+        }
+        request.mCallbacks.add(done);
+        return true;
+    }
+
+    /*
+     Withdraws a prefetch, the load is cancelled if nothing else waits for it.
+     done is not run.
+     */
+    public void cancelPrefetch(String url, Runnable done) {
+        Request request = mRequests.get(url);
+        if (request != null && request.mCallbacks.remove(done)) {
+            cancelIfUnused(request);
+        }
+    }
+
+    /*
+     Stops waiting for the image pending for view, if any.
+     */
+    public void cancel(ImageView view) {
+        Request request = mTargets.remove(view);
+        if (request == null) {
+            return;
+        }
+        request.mTargets.remove(view);
+        cancelIfUnused(request);
+    }
+
+    /*
+     Called for a view moved to the scrap heap of a list. Its bitmap may be
+     reused once it is no longer cached.
+     */
+    public void recycle(ImageView view) {
+        cancel(view);
+        Bitmap bitmap = mShown.remove(view);
+        if (bitmap != null) {
+            view.setImageDrawable(null);
+            release(bitmap);
+        }
+    }
+
+    /*
+     Shrinks the caches as the system asks, see ComponentCallbacks2.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mMemory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMemory.trimToSize(mMemory.maxSize() / 2);
+        }
+        mPool.onTrimMemory(level);
+    }
+
+    public Metrics getMetrics() {
+        Metrics metrics = new Metrics();
+        metrics.memoryHits = mMemoryHits.get();
+        metrics.memoryMisses = mMemoryMisses.get();
+        metrics.diskHits = mDiskHits.get();
+        metrics.downloads = mDownloads.get();
+        metrics.failures = mFailures.get();
+        metrics.coalesced = mCoalesced.get();
+        metrics.cancelled = mCancelled.get();
+        metrics.decodes = mDecodes.get();
+        metrics.decodeMillis = mDecodeMillis.get();
+        metrics.pool = mPool.getStats();
+        return metrics;
+    }
+
+    private Request submit(String url, boolean prefetch) {
+        Request request = new Request(url);
+        request.mTask = new Task(request, prefetch);
+        mRequests.put(url, request);
+        mExecutor.execute(request.mTask);
+        return request;
+    }
+
+    private void cancelIfUnused(Request request) {
+        if (request.mTargets.isEmpty() && request.mCallbacks.isEmpty()
+                && request.mTask.cancel(false)) {
+            mRequests.remove(request.mUrl);
+            mExecutor.remove(request.mTask);
+            mCancelled.incrementAndGet();
+        }
+    }
+
+    private void deliver(Request request, Bitmap bitmap) {
+        if (mRequests.get(request.mUrl) == request) {
+            mRequests.remove(request.mUrl);
+        }
+        for (ImageView view : request.mTargets) {
+            if (mTargets.get(view) == request) {
+                mTargets.remove(view);
+                if (bitmap != null) {
+                    show(view, bitmap);
+                }
+            }
+        }
+        request.mTargets.clear();
+        if (bitmap != null) {
+            release(bitmap);
+        }
+        for (Runnable callback : request.mCallbacks) {
+            callback.run();
+        }
+        request.mCallbacks.clear();
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        view.setImageBitmap(bitmap);
+        retain(bitmap);
+        Bitmap previous = mShown.put(view, bitmap);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    private void showPlaceholder(ImageView view, int placeholder) {
+        view.setImageResource(placeholder);
+        Bitmap previous = mShown.remove(view);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    private void retain(Bitmap bitmap) {
+        synchronized (mUsers) {
+            Integer users = mUsers.get(bitmap);
+            mUsers.put(bitmap, users != null ? users + 1 : 1);
+        }
+    }
+
+    private void release(Bitmap bitmap) {
+        synchronized (mUsers) {
+            Integer users = mUsers.get(bitmap);
+            if (users == null || users > 1) {
+                if (users != null) {
+                    mUsers.put(bitmap, users - 1);
+                }
+                return;
+            }
+            mUsers.remove(bitmap);
+            if (mEvicted.remove(bitmap)) {
+                mPool.put(bitmap);
+            }
+        }
+    }
+
+    // A bitmap left the memory cache
+    private void onRemoved(Bitmap bitmap) {
+        synchronized (mUsers) {
+            if (mUsers.containsKey(bitmap)) {
+                mEvicted.add(bitmap);
+            } else {
+                mPool.put(bitmap);
+            }
+        }
+    }
+
+    // Worker thread: disk cache or network, then decode
+    private Bitmap fetch(String url) {
+        try {
+            File file = mDisk.get(url);
+            if (file != null) {
+                mDiskHits.incrementAndGet();
+            } else {
+                file = download(url);
+                mDownloads.incrementAndGet();
+            }
+            Bitmap bitmap = decode(file);
+            if (bitmap == null) {
+                // Not an image, do not keep it
+                mDisk.remove(url);
+                mFailures.incrementAndGet();
+            }
+            return bitmap;
+        } catch (IOException e) {
+            mFailures.incrementAndGet();
+            Log.e(TAG, "Error loading image " + url + ". " + e.toString());
+            return null;
+        }
+    }
+
+    private File download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                return mDisk.put(url, in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Decodes file subsampled to the smallest power of two still covering the target size
+    private Bitmap decode(File file) {
+        long start = SystemClock.elapsedRealtime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mTargetWidth
+                && options.outHeight / (sampleSize * 2) >= mTargetHeight) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Decoded bitmaps must be mutable to be decoded into again later
+        options.inMutable = true;
+        if (BitmapPool.canReuse(sampleSize)) {
+            options.inBitmap = mPool.get((options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize, Bitmap.Config.ARGB_8888);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        mDecodes.incrementAndGet();
+        mDecodeMillis.addAndGet(SystemClock.elapsedRealtime() - start);
+        return bitmap;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * JournaledCatalog.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ A loaded catalog with journal records applied on top of it (see CatalogJournal).
+
+ The base catalog is left untouched. The list keeps the order of its entries
+ as ids: ids >= 0 are base positions, negative ids point into the sources
+ added by the journal. An updated entry is added as a new source and takes
+ the place of the old one.
+
+ Instances are never changed once published, apply() returns a new version.
+ Versions share everything they can: the order is split in chunks and a new
+ version only copies the chunks the records touched, added sources are kept
+ in one append-only array, and the url map is kept for the newest version
+ only. Applying records costs the number of chunks plus the records, not
+ the catalog size.
+ */
+public class JournaledCatalog extends AbstractList<MediaSourceManager.MediaSource>
+        implements CatalogRecords {
+
+    // Entries per chunk of the order
+    private static final int CHUNK_SIZE = 256;
+
+    private final List<MediaSourceManager.MediaSource> mBase;
+    private final State mState;
+    // Entry ids in list order. Chunks are shared with other versions.
+    private final int[][] mChunks;
+    private final int[] mLengths;
+    // List position of the first entry of each chunk
+    private final int[] mStarts;
+    private final int mSize;
+    // Sources added by the journal, by -id - 1. Only the ids in mChunks are read.
+    private final MediaSourceManager.MediaSource[] mAdded;
+
+    /*
+     What apply() needs to find entries, shared by all versions of a catalog
+     and always describing the newest one.
+     */
+    private static class State {
+        // url to entry id of every source in the newest version
+        final Map<String, Integer> mIds = new HashMap<>();
+        MediaSourceManager.MediaSource[] mAdded = new MediaSourceManager.MediaSource[16];
+        // Chunk holding each added source, by -id - 1
+        int[] mAddedChunks = new int[16];
+        int mAddedCount;
+        JournaledCatalog mNewest;
+
+        int add(MediaSourceManager.MediaSource source, int chunk) {
+            if (mAddedCount == mAdded.length) {
+                // Older versions keep the previous array, they never read past their count
+                mAdded = Arrays.copyOf(mAdded, mAddedCount * 2);
+                mAddedChunks = Arrays.copyOf(mAddedChunks, mAddedCount * 2);
+            }
+            mAdded[mAddedCount] = source;
+            mAddedChunks[mAddedCount] = chunk;
+            mAddedCount++;
+            return -mAddedCount;
+        }
+    }
+
+    public JournaledCatalog(List<MediaSourceManager.MediaSource> base) {
+        mBase = base;
+        mState = new State();
+        mSize = base.size();
+        int chunkCount = (mSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        mChunks = new int[chunkCount][];
+        mLengths = new int[chunkCount];
+        mStarts = new int[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int start = chunk * CHUNK_SIZE;
+            int length = Math.min(CHUNK_SIZE, mSize - start);
+            int[] ids = new int[length];
+            for (int i = 0; i < length; i++) {
+                ids[i] = start + i;
+                mState.mIds.put(getBaseUrl(start + i), start + i);
+            }
+            mChunks[chunk] = ids;
+            mLengths[chunk] = length;
+            mStarts[chunk] = start;
+        }
+        mAdded = mState.mAdded;
+        mState.mNewest = this;
+    }
+
+    private JournaledCatalog(JournaledCatalog previous, Edit edit) {
+        mBase = previous.mBase;
+        mState = previous.mState;
+        mChunks = Arrays.copyOf(edit.mChunks, edit.mChunkCount);
+        mLengths = Arrays.copyOf(edit.mLengths, edit.mChunkCount);
+        mStarts = new int[edit.mChunkCount];
+        int start = 0;
+        for (int chunk = 0; chunk < edit.mChunkCount; chunk++) {
+            mStarts[chunk] = start;
+            start += mLengths[chunk];
+        }
+        mSize = start;
+        mAdded = mState.mAdded;
+    }
+
+    /*
+     Returns a new version of this catalog with the journal records applied in
+     order. Only the newest version can be applied to.
+     */
+    public JournaledCatalog apply(List<CatalogJournal.Record> records) {
+        if (mState.mNewest != this) {
+            throw new IllegalStateException("Records must be applied to the newest catalog");
+        }
+        Map<String, Integer> ids = mState.mIds;
+        Edit edit = new Edit(this);
+        for (CatalogJournal.Record record : records) {
+            Integer id = ids.get(record.url);
+            if (CatalogJournal.OP_REMOVE.equals(record.op)) {
+                if (id != null) {
+                    ids.remove(record.url);
+                    edit.remove(chunkOf(id), id);
+                }
+            } else if (id != null) {
+                int chunk = chunkOf(id);
+                int newId = mState.add(record.source, chunk);
+                edit.replace(chunk, id, newId);
+                ids.remove(record.url);
+                ids.put(record.source.url, newId);
+            } else {
+                int chunk = edit.appendChunk();
+                int newId = mState.add(record.source, chunk);
+                edit.append(chunk, newId);
+                ids.put(record.source.url, newId);
+            }
+        }
+        JournaledCatalog catalog = new JournaledCatalog(this, edit);
+        mState.mNewest = catalog;
+        return catalog;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public MediaSourceManager.MediaSource get(int location) {
+        int id = idAt(location);
+        return id < 0 ? mAdded[-id - 1] : mBase.get(id);
+    }
+
+    @Override
+    public String getUrl(int location) {
+        int id = idAt(location);
+        return id < 0 ? mAdded[-id - 1].url : getBaseUrl(id);
+    }
+
+    @Override
+    public int getContentHash(int location) {
+        int id = idAt(location);
+        if (id < 0) {
+            return mAdded[-id - 1].getContentHash();
+        }
+        if (mBase instanceof CatalogRecords) {
+            return ((CatalogRecords) mBase).getContentHash(id);
+        }
+        return mBase.get(id).getContentHash();
+    }
+
+    private int idAt(int location) {
+        if (location < 0 || location >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + mSize);
+        }
+        int chunk = chunkAt(location);
+        return mChunks[chunk][location - mStarts[chunk]];
+    }
+
+    // The last chunk starting at or before location, empty chunks start where the next one does
+    private int chunkAt(int location) {
+        int low = 0;
+        int high = mStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mStarts[middle] <= location) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Entries never move to another chunk, base entries stay where they started
+    private int chunkOf(int id) {
+        return id >= 0 ? id / CHUNK_SIZE : mState.mAddedChunks[-id - 1];
+    }
+
+    // Reads the url alone where the base can, instead of decoding the whole source
+    private String getBaseUrl(int id) {
+        if (mBase instanceof CatalogRecords) {
+            return ((CatalogRecords) mBase).getUrl(id);
+        }
+        return mBase.get(id).url;
+    }
+
+    /*
+     Order of the version being built by apply(). A chunk is copied the first
+     time it changes, the previous version keeps the original.
+     */
+    private static class Edit {
+        int[][] mChunks;
+        int[] mLengths;
+        boolean[] mCopied;
+        int mChunkCount;
+
+        Edit(JournaledCatalog from) {
+            mChunkCount = from.mChunks.length;
+            mChunks = Arrays.copyOf(from.mChunks, mChunkCount + 1);
+            mLengths = Arrays.copyOf(from.mLengths, mChunkCount + 1);
+            mCopied = new boolean[mChunkCount + 1];
+        }
+
+        void remove(int chunk, int id) {
+            int[] ids = writable(chunk);
+            int index = indexOf(chunk, id);
+            System.arraycopy(ids, index + 1, ids, index, mLengths[chunk] - index - 1);
+            mLengths[chunk]--;
+        }
+
+        void replace(int chunk, int id, int newId) {
+            writable(chunk)[indexOf(chunk, id)] = newId;
+        }
+
+        // Returns the chunk new entries go to, the last one unless it is full
+        int appendChunk() {
+            if (mChunkCount > 0 && mLengths[mChunkCount - 1] < CHUNK_SIZE) {
+                return mChunkCount - 1;
+            }
+            if (mChunkCount == mChunks.length) {
+                mChunks = Arrays.copyOf(mChunks, mChunkCount * 2);
+                mLengths = Arrays.copyOf(mLengths, mChunkCount * 2);
+                mCopied = Arrays.copyOf(mCopied, mChunkCount * 2);
+            }
+            return mChunkCount++;
+        }
+
+        void append(int chunk, int id) {
+            writable(chunk)[mLengths[chunk]++] = id;
+        }
+
+        private int[] writable(int chunk) {
+            if (!mCopied[chunk]) {
+                int[] ids = mChunks[chunk];
+                mChunks[chunk] = ids != null ? Arrays.copyOf(ids, CHUNK_SIZE) : new int[CHUNK_SIZE];
+                mCopied[chunk] = true;
+            }
+            return mChunks[chunk];
+        }
+
+        private int indexOf(int chunk, int id) {
+            int[] ids = mChunks[chunk];
+            for (int i = 0; i < mLengths[chunk]; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Entry " + id + " is not in chunk " + chunk);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * KnownDeviceCache.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Receivers seen recently, kept across launches so the picker can show them
+ before discovery finds them again.
+
+ The table is stored in its own preferences file as one line per receiver:
+ identifier, name, last seen time and connection latency, tab separated.
+ Receivers not seen for longer than the TTL are dropped, and only the most
+ recently seen ones are kept.
+ */
+public class KnownDeviceCache {
+
+    private static final String TAG = KnownDeviceCache.class.getName();
+
+    private static final String PREF_NAME = "com.amazon.whisperplay.example.fling.devices";
+    private static final String PREF_DEVICES = "devices";
+    public static final long DEFAULT_TTL_MS = 7 * 24 * 60 * 60 * 1000L;
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    public static class Entry {
+        public final String uniqueIdentifier;
+        public final String name;
+        public final long lastSeen;
+        // Time addStatusListener took on the last connection, -1 if never connected
+        public final long latencyMs;
+
+        Entry(String uniqueIdentifier, String name, long lastSeen, long latencyMs) {
+            this.uniqueIdentifier = uniqueIdentifier;
+            this.name = name;
+            this.lastSeen = lastSeen;
+            this.latencyMs = latencyMs;
+        }
+
+        public String toString() {
+            return name + "[" + uniqueIdentifier + "] seen=" + lastSeen + " latency=" + latencyMs;
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+    private final long mTtlMs;
+    private final int mMaxEntries;
+    // Entries by identifier, least recently seen first
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    public KnownDeviceCache(Context context) {
+        this(context, DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+    }
+
+    public KnownDeviceCache(Context context, long ttlMs, int maxEntries) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(
+                PREF_NAME, Context.MODE_PRIVATE);
+        mTtlMs = ttlMs;
+        mMaxEntries = maxEntries;
+    }
+
+    /*
+     Returns the receivers seen within the TTL, sorted by name.
+     */
+    public synchronized List<Entry> getEntries() {
+        load();
+        expire(System.currentTimeMillis());
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                int result = entry1.name.compareTo(entry2.name);
+                return result != 0 ? result
+                        : entry1.uniqueIdentifier.compareTo(entry2.uniqueIdentifier);
+            }
+        });
+        return entries;
+    }
+
+    public synchronized Entry get(String uniqueIdentifier) {
+        load();
+        return mEntries.get(uniqueIdentifier);
+    }
+
+    /*
+     Records that discovery found the receiver now. Any thread.
+     */
+    public synchronized void seen(RemoteMediaPlayer device) {
+        load();
+        Entry old = mEntries.remove(device.getUniqueIdentifier());
+        update(device, old != null ? old.latencyMs : -1);
+    }
+
+    /*
+     Records a successful connection to the receiver and how long it took. Any thread.
+     */
+    public synchronized void connected(RemoteMediaPlayer device, long latencyMs) {
+        load();
+        mEntries.remove(device.getUniqueIdentifier());
+        update(device, latencyMs);
+    }
+
+    /*
+     Writes the table if it changed. The write itself happens in background.
+     */
+    public synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        expire(System.currentTimeMillis());
+        StringBuilder table = new StringBuilder();
+        for (Entry entry : mEntries.values()) {
+            table.append(clean(entry.uniqueIdentifier)).append('\t')
+                    .append(clean(entry.name)).append('\t')
+                    .append(entry.lastSeen).append('\t')
+                    .append(entry.latencyMs).append('\n');
+        }
+        mPreferences.edit().putString(PREF_DEVICES, table.toString()).apply();
+        mDirty = false;
+        Log.i(TAG, "save - " + mEntries.size() + " devices");
+    }
+
+    private void update(RemoteMediaPlayer device, long latencyMs) {
+        mEntries.put(device.getUniqueIdentifier(), new Entry(device.getUniqueIdentifier(),
+                device.getName(), System.currentTimeMillis(), latencyMs));
+        while (mEntries.size() > mMaxEntries) {
+            mEntries.remove(mEntries.keySet().iterator().next());
+        }
+        mDirty = true;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        String table = mPreferences.getString(PREF_DEVICES, null);
+        if (table == null) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (String line : table.split("\n")) {
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                entries.add(new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3])));
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Invalid device entry. " + e.toString());
+            }
+        }
+        // Stored in any order, kept least recently seen first
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return entry1.lastSeen < entry2.lastSeen ? -1
+                        : (entry1.lastSeen == entry2.lastSeen ? 0 : 1);
+            }
+        });
+        for (Entry entry : entries) {
+            mEntries.put(entry.uniqueIdentifier, entry);
+        }
+        Log.i(TAG, "load - " + mEntries.size() + " devices");
+    }
+
+    private void expire(long now) {
+        while (!mEntries.isEmpty()) {
+            Entry eldest = mEntries.values().iterator().next();
+            if (now - eldest.lastSeen <= mTtlMs) {
+                break;
+            }
+            mEntries.remove(eldest.uniqueIdentifier);
+            mDirty = true;
+        }
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+}
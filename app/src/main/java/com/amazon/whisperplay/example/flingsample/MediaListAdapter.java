@@ -14,69 +14,195 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.androidquery.AQuery;
-
-import org.json.JSONObject;
-
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class MediaListAdapter extends BaseAdapter {
+public class MediaListAdapter extends BaseAdapter implements AbsListView.RecyclerListener {
 
     private LayoutInflater mInflater;
     private List<MediaSourceManager.MediaSource> mData;
-    private AQuery mAQuery;
+    private ImagePipeline mImages;
+    // Catalog positions shown while a search is active, null shows everything
+    private int[] mFilter;
 
     public MediaListAdapter(Context context, List<MediaSourceManager.MediaSource> data) {
         this.mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         this.mData = data;
-        this.mAQuery = new AQuery(context);
+        this.mImages = ImagePipeline.getDefault(context);
+    }
+
+    /*
+     Appends a batch of sources while the catalog is still loading.
+     */
+    public void addSources(List<MediaSourceManager.MediaSource> sources) {
+        if (!(mData instanceof ArrayList)) {
+            mData = new ArrayList<>(mData);
+        }
+        mData.addAll(sources);
+        mFilter = null;
+        notifyDataSetChanged();
+    }
+
+    /*
+     Replaces the shown sources, e.g. with the complete catalog once loading finished.
+     */
+    public void setSources(List<MediaSourceManager.MediaSource> sources) {
+        mData = sources;
+        mFilter = null;
+        notifyDataSetChanged();
+    }
+
+    /*
+     Replaces the shown sources with a reloaded catalog, see CatalogDiff.
+     The search filter follows the sources it showed. Returns false if
+     nothing shown changed, the rows need no rebinding then.
+     */
+    public boolean updateSources(List<MediaSourceManager.MediaSource> sources, CatalogDiff diff) {
+        mData = sources;
+        if (diff.isUnchanged()) {
+            return false;
+        }
+        if (mFilter != null && !diff.isSameOrder()) {
+            int[] filter = new int[mFilter.length];
+            int count = 0;
+            for (int position : mFilter) {
+                int newPosition = diff.getNewPosition(position);
+                if (newPosition >= 0) {
+                    filter[count++] = newPosition;
+                }
+            }
+            mFilter = Arrays.copyOf(filter, count);
+        }
+        return true;
+    }
+
+    public List<MediaSourceManager.MediaSource> getSources() {
+        return mData;
+    }
+
+    /*
+     Shows only the given catalog positions, in the given order (see
+     MediaSourceManager.search()). Passing null shows the whole catalog again.
+     */
+    public void setFilter(int[] positions) {
+        mFilter = positions;
+        notifyDataSetChanged();
     }
+
+    /*
+     Called by the list when it scrolls, lets a paged catalog prefetch ahead.
+     */
+    public void setVisibleRange(int firstVisible, int visibleCount) {
+        if (mData instanceof PagedCatalog && mFilter == null) {
+            ((PagedCatalog) mData).setVisibleRange(firstVisible, visibleCount);
+        }
+    }
+
     @Override
     public int getCount() {
-        return mData.size();
+        return mFilter != null ? mFilter.length : mData.size();
     }
 
     @Override
     public Object getItem(int position) {
-        return mData.get(position);
+        return mData.get(getCatalogPosition(position));
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return getCatalogPosition(position);
+    }
+
+    public int getCatalogPosition(int position) {
+        return mFilter != null ? mFilter[position] : position;
+    }
+
+    /*
+     Returns the list position showing a catalog position, -1 if filtered out.
+     */
+    public int getListPosition(int catalogPosition) {
+        if (mFilter == null) {
+            return catalogPosition;
+        }
+        for (int i = 0; i < mFilter.length; i++) {
+            if (mFilter[i] == catalogPosition) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
         if (convertView == null) {
             convertView = mInflater.inflate(R.layout.item, parent, false);
+            holder = new ViewHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
         }
-        MediaSourceManager.MediaSource mediaSource = mData.get(position);
-        JSONObject metadata = new JSONObject(mediaSource.metadata);
+        bind(holder, position);
+        return convertView;
+    }
 
-        ImageView iconUrlView = (ImageView)convertView.findViewById(R.id.mediaimage);
-        String imageUrl = mediaSource.iconUrl;
+    /*
+     Rebinds a row the list already shows, e.g. after its source changed in
+     place (see CatalogDiff). Does nothing for views this adapter did not inflate.
+     */
+    public void rebindView(View view, int position) {
+        Object holder = view.getTag();
+        if (holder instanceof ViewHolder) {
+            bind((ViewHolder) holder, position);
+        }
+    }
 
-        if (!imageUrl.isEmpty()) {
-            mAQuery.id(iconUrlView).image(imageUrl, true, true, 0, R.drawable.ic_whisperplay_default_light_24dp);
-        } else {
-            iconUrlView.setImageResource(R.drawable.ic_whisperplay_default_light_24dp);
+    private void bind(ViewHolder holder, int position) {
+        MediaRow row = mData.get(getCatalogPosition(position)).getRow();
+        if (holder.mRow == row) {
+            // Rebound with the same source, e.g. after notifyDataSetChanged()
+            return;
         }
+        holder.mRow = row;
 
-        TextView titleTextView = (TextView)convertView.findViewById(R.id.mediatitle);
-        titleTextView.setText(mediaSource.toString());
+        mImages.load(row.iconUrl, holder.mIcon, R.drawable.ic_whisperplay_default_light_24dp);
+        holder.mTitle.setText(row.title);
+        holder.mDescription.setText(row.description);
+    }
 
-        TextView descriptionTextView = (TextView)convertView.findViewById(R.id.mediadescription);
-        String description = metadata.optString("description");
-        if (description != null) {
-            descriptionTextView.setText(description);
-        } else {
-            descriptionTextView.setText("Description:");
+    /*
+     Set as the list's RecyclerListener: rows leaving the screen give their
+     icon back to the image pipeline.
+     */
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder != null) {
+            mImages.recycle(holder.mIcon);
+            holder.mRow = null;
+        }
+    }
+
+    /*
+     Views of a row, looked up once when the row is inflated.
+     */
+    private static class ViewHolder {
+        final ImageView mIcon;
+        final TextView mTitle;
+        final TextView mDescription;
+        // Row currently bound, rebinding the same row is skipped
+        MediaRow mRow;
+
+        ViewHolder(View view) {
+            mIcon = (ImageView) view.findViewById(R.id.mediaimage);
+            mTitle = (TextView) view.findViewById(R.id.mediatitle);
+            mDescription = (TextView) view.findViewById(R.id.mediadescription);
         }
-        return convertView;
     }
 }
@@ -0,0 +1,278 @@
+/**
+ * MediaProbe.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Checks in background whether catalog urls are reachable before they are flung.
+
+ A probe is a HEAD request, or a one byte range GET for servers refusing HEAD.
+ Probes run on a small bounded pool with a limit of concurrent probes per host.
+ Probes over the limit wait in a queue of their host, not on a pool thread, so
+ a slow host does not hold up the probes of the others.
+ Status, content type, length and latency are cached per url for a while, so
+ the fling path can look up a result without any network round trip.
+ */
+public class MediaProbe {
+
+    private static final String TAG = MediaProbe.class.getName();
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_PER_HOST = 2;
+    private static final long DEFAULT_TTL_MS = 5 * 60 * 1000L;
+    // Probes waiting per host, the oldest are dropped when more are requested
+    private static final int MAX_PENDING = 64;
+    private static final int TIMEOUT_MS = 5000;
+
+    private static MediaProbe sDefault;
+
+    public static class Result {
+        public String url;
+        // HTTP status, or -1 if the request failed
+        public int status;
+        public String contentType;
+        // -1 if unknown
+        public long contentLength;
+        public long latencyMillis;
+        public long probedAt;
+        public String error;
+
+        public boolean isReachable() {
+            return status >= 200 && status < 400;
+        }
+
+        /*
+         True if the server answered with an error status. A failed request
+         (status -1) is no verdict, the player fetches the url itself and may
+         well reach it.
+         */
+        public boolean isRefused() {
+            return status >= 400;
+        }
+
+        public String toString() {
+            return url + " status=" + status + " type=" + contentType + " length="
+                    + contentLength + " latency=" + latencyMillis + "ms"
+                    + (error != null ? " error=" + error : "");
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mPerHost;
+    private final long mTtlMillis;
+    private final Map<String, Result> mResults = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> mInFlight = new ConcurrentHashMap<>();
+    // Hosts with probes running, guarded by itself
+    private final Map<String, HostQueue> mHosts = new HashMap<>();
+
+    private static class HostQueue {
+        int running;
+        final ArrayDeque<ProbeTask> waiting = new ArrayDeque<>();
+    }
+
+    public MediaProbe(int threads, int perHost, long ttlMillis) {
+        mPerHost = perHost;
+        mTtlMillis = ttlMillis;
+        // Unbounded, it holds at most perHost probes of every host
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadPoolExecutor.DiscardPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized MediaProbe getDefault() {
+        if (sDefault == null) {
+            sDefault = new MediaProbe(DEFAULT_THREADS, DEFAULT_PER_HOST, DEFAULT_TTL_MS);
+        }
+        return sDefault;
+    }
+
+    /*
+     Returns the cached result for url, or null if it was never probed or the
+     result expired.
+     */
+    public Result getCached(String url) {
+        Result result = mResults.get(url);
+        if (result == null || System.currentTimeMillis() - result.probedAt > mTtlMillis) {
+            return null;
+        }
+        return result;
+    }
+
+    /*
+     Queues a probe of url unless a fresh result is cached or a probe is pending.
+     */
+    public void probe(String url) {
+        if (url == null || url.isEmpty() || getCached(url) != null) {
+            return;
+        }
+        if (mInFlight.put(url, Boolean.TRUE) != null) {
+            return;
+        }
+        schedule(new ProbeTask(url));
+    }
+
+    public void probe(MediaSourceManager.MediaSource source) {
+        probe(source.url);
+        probe(source.iconUrl);
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    // Runs task if its host has a free slot, queues it for the host otherwise
+    private void schedule(ProbeTask task) {
+        synchronized (mHosts) {
+            HostQueue host = mHosts.get(task.mHost);
+            if (host == null) {
+                host = new HostQueue();
+                mHosts.put(task.mHost, host);
+            }
+            if (host.running >= mPerHost) {
+                if (host.waiting.size() >= MAX_PENDING) {
+                    // Newer requests are more relevant
+                    mInFlight.remove(host.waiting.poll().mUrl);
+                }
+                host.waiting.add(task);
+                return;
+            }
+            host.running++;
+        }
+        mExecutor.execute(task);
+    }
+
+    // Hands the slot of a finished probe to the next one waiting for its host
+    private void finished(ProbeTask task) {
+        ProbeTask next;
+        synchronized (mHosts) {
+            HostQueue host = mHosts.get(task.mHost);
+            next = host.waiting.poll();
+            if (next == null && --host.running == 0) {
+                mHosts.remove(task.mHost);
+            }
+        }
+        if (next != null) {
+            mExecutor.execute(next);
+        }
+    }
+
+    private class ProbeTask implements Runnable {
+        private final String mUrl;
+        private final String mHost;
+
+        ProbeTask(String url) {
+            mUrl = url;
+            String host;
+            try {
+                host = new URL(url).getHost();
+            } catch (MalformedURLException e) {
+                // Fails right away in probeNow()
+                host = "";
+            }
+            mHost = host;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Result result = probeNow(mUrl);
+                mResults.put(mUrl, result);
+                if (!result.isReachable()) {
+                    Log.w(TAG, "Unreachable: " + result);
+                }
+            } finally {
+                mInFlight.remove(mUrl);
+                finished(this);
+            }
+        }
+    }
+
+    private Result probeNow(String url) {
+        Result result = new Result();
+        result.url = url;
+        result.status = -1;
+        result.contentLength = -1;
+        long start = System.currentTimeMillis();
+        try {
+            URL target = new URL(url);
+            HttpURLConnection connection = request(target, "HEAD");
+            if (isHeadRefused(connection.getResponseCode())) {
+                connection.disconnect();
+                connection = request(target, "GET");
+            }
+            try {
+                result.status = connection.getResponseCode();
+                result.contentType = connection.getContentType();
+                result.contentLength = getLength(connection);
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            result.error = e.toString();
+        }
+        result.probedAt = System.currentTimeMillis();
+        result.latencyMillis = result.probedAt - start;
+        return result;
+    }
+
+    // Statuses servers answer HEAD with while GET may well work
+    private static boolean isHeadRefused(int status) {
+        return status == HttpURLConnection.HTTP_BAD_METHOD
+                || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED
+                || status == HttpURLConnection.HTTP_FORBIDDEN;
+    }
+
+    private static HttpURLConnection request(URL target, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(true);
+        if ("GET".equals(method)) {
+            connection.setRequestProperty("Range", "bytes=0-0");
+        }
+        return connection;
+    }
+
+    // Total length from Content-Range for range requests, Content-Length otherwise
+    private static long getLength(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+        if (range != null && range.lastIndexOf('/') >= 0) {
+            try {
+                return Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        String length = connection.getHeaderField("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * MediaRow.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+/*
+ What a media list row shows, derived once from a MediaSource.
+
+ Rows never change after they are built, binding one only copies these
+ references into the row views. See MediaSource.getRow().
+ */
+public final class MediaRow {
+
+    public final String title;
+    public final String description;
+    // Null if the source has no icon
+    public final String iconUrl;
+
+    MediaRow(MediaSourceManager.MediaSource source) {
+        title = source.toString();
+        description = source.getDescription();
+        iconUrl = source.iconUrl != null && !source.iconUrl.isEmpty() ? source.iconUrl : null;
+    }
+}
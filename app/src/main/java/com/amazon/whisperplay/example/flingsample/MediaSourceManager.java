@@ -11,32 +11,95 @@
 package com.amazon.whisperplay.example.flingsample;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.os.Environment;
+import android.os.FileObserver;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 public class MediaSourceManager {
 
     private static final String TAG = MediaSourceManager.class.getName();
     private static final String FILE_NAME = "FlingSample.json";
+    // Optional directory next to FILE_NAME holding more catalogs, e.g. one per provider
+    private static final String CATALOG_DIR_NAME = "FlingSample";
+    private static final String CATALOG_EXTENSION = ".json";
+    // Append-only change journal next to FILE_NAME
+    private static final String JOURNAL_FILE_NAME = "FlingSample.journal";
+    // Journal size above which it is folded into the database
+    private static final long JOURNAL_COMPACT_SIZE = 256 * 1024;
+    // Compiled form of all catalogs, kept in the application cache directory
+    private static final String BINARY_FILE_NAME = "FlingSample.bin";
+    // Chunk size used when the bundled database has to be copied as a stream
+    private static final long COPY_CHUNK_SIZE = 256 * 1024;
+    // Preferences remembering which bundled database was copied to storage
+    private static final String PREF_NAME = "com.amazon.whisperplay.example.fling.catalog";
+    private static final String PREF_INSTALL_STAMP = "installStamp";
+    private static final String PREF_ASSET_HASH = "assetHash";
+    // Read buffer for the streaming parser. Memory use is bounded by this and a single entry.
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
     private Context mContext;
 
+    // Process wide cache of the last loaded catalog, shared by all managers.
+    // It is keyed by size, mtime and content hash of the JSON database. The hash
+    // is taken while compiling and kept in the binary catalog, -1 if unknown.
+    private static final Object sCacheLock = new Object();
+    private static List<MediaSource> sCachedCatalog;
+    private static long sCachedLength;
+    private static long sCachedModified;
+    private static long sCachedHash;
+    // Search index over sCachedCatalog, built on the first search, null until then
+    private static CatalogSearchIndex sCachedIndex;
+    // Held while the index is built, so concurrent searches build it once
+    private static final Object sIndexLock = new Object();
+    // Set by the file observer when the database is written, moved or deleted
+    private static volatile boolean sCacheDirty = true;
+    private static FileObserver sObserver;
+    private static FileObserver sProviderObserver;
+    private static final int OBSERVED_EVENTS = FileObserver.CLOSE_WRITE
+            | FileObserver.MOVED_TO | FileObserver.MOVED_FROM | FileObserver.DELETE;
+    private static CatalogFederation.Result sLastFederation;
+    // Catalog as loaded from the database, before journal records were applied
+    private static List<MediaSource> sBaseCatalog;
+    // The journal of the database, shared so appends and compaction are serialized
+    private static CatalogJournal sJournal;
+    // Journal bytes already applied to sCachedCatalog, valid for sJournalGeneration
+    private static long sJournalOffset;
+    private static int sJournalGeneration;
+    // Journal length left by the last condense(), it is condensed again once it grew past that
+    private static volatile long sCondensedLength;
+    private static volatile boolean sCompacting = false;
+
     public MediaSourceManager(Context context) {
         mContext = context;
     }
@@ -48,16 +111,186 @@ public class MediaSourceManager {
         public String iconUrl;
         public Map<String, Object> metadata;
 
+        // Derived from metadata when first needed, see invalidate()
+        private String mMetadataJson;
+        private String mDescription;
+        private MediaRow mRow;
+
         public String toString() {
             return presentableTitle;
         }
+
+        /*
+         Returns the metadata serialized as JSON, as it is sent to the player.
+         The string is built once and reused for every fling.
+         */
+        public String getMetadataJson() {
+            String json = mMetadataJson;
+            if (json == null) {
+                json = new JSONObject(metadata).toString();
+                mMetadataJson = json;
+            }
+            return json;
+        }
+
+        /*
+         Returns a CRC32 of what is shown and flung for this source: title,
+         icon and metadata. The url is left out, sources are matched by it.
+         Stored by BinaryCatalog, so changed sources are found without decoding.
+         */
+        public int getContentHash() {
+            CRC32 crc = new CRC32();
+            updateHash(crc, presentableTitle);
+            updateHash(crc, iconUrl);
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                Object value = entry.getValue();
+                updateHash(crc, entry.getKey());
+                // Tells the string "1" from the number 1
+                crc.update(value instanceof String ? 1 : 2);
+                updateHash(crc, String.valueOf(value));
+            }
+            return (int) crc.getValue();
+        }
+
+        private static void updateHash(CRC32 crc, String value) {
+            if (value != null) {
+                crc.update(value.getBytes(UTF_8));
+            }
+            crc.update(0);
+        }
+
+        public String getDescription() {
+            String description = mDescription;
+            if (description == null) {
+                Object value = metadata.get("description");
+                description = value != null ? value.toString() : "";
+                mDescription = description;
+            }
+            return description;
+        }
+
+        /*
+         Returns the row shown for this source in the media list, built when
+         the source is first bound. Parsing and decoding never build rows.
+         */
+        public MediaRow getRow() {
+            MediaRow row = mRow;
+            if (row == null) {
+                row = new MediaRow(this);
+                mRow = row;
+            }
+            return row;
+        }
+
+        /*
+         Drops the cached payload and display fields. Must be called after
+         changing metadata of a source that has already been shown or flung.
+         */
+        public void invalidate() {
+            mMetadataJson = null;
+            mDescription = null;
+            mRow = null;
+        }
+    }
+
+    /*
+     Receives media sources one by one while the database is being read.
+     Returning false stops reading the rest of the database.
+     */
+    public interface SourceListener {
+        boolean onSource(MediaSource source);
     }
 
-    private static void copyFile(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[1024];
-        int read;
-        while((read = in.read(buffer)) != -1){
-            out.write(buffer, 0, read);
+    /*
+     Copies the bundled asset to out. The data goes through channels straight
+     into a temporary file next to out, which is synced and then renamed, so a
+     crash never leaves a truncated database behind.
+     */
+    private void copyAsset(File out) throws IOException {
+        File tmp = new File(out.getPath() + ".tmp");
+        FileOutputStream outStream = new FileOutputStream(tmp);
+        try {
+            FileChannel target = outStream.getChannel();
+            AssetManager manager = mContext.getAssets();
+            AssetFileDescriptor fd = null;
+            try {
+                fd = manager.openFd(FILE_NAME);
+            } catch (IOException e) {
+                // Compressed assets have no file descriptor, copy them as a stream
+                Log.d(TAG, "Asset is compressed, copying as stream.");
+            }
+            if (fd != null) {
+                FileChannel source = fd.createInputStream().getChannel();
+                try {
+                    long position = fd.getStartOffset();
+                    long end = position + fd.getLength();
+                    while (position < end) {
+                        position += source.transferTo(position, end - position, target);
+                    }
+                } finally {
+                    source.close();
+                    fd.close();
+                }
+            } else {
+                ReadableByteChannel source = Channels.newChannel(manager.open(FILE_NAME));
+                try {
+                    long position = 0;
+                    long read;
+                    while ((read = target.transferFrom(source, position, COPY_CHUNK_SIZE)) > 0) {
+                        position += read;
+                    }
+                } finally {
+                    source.close();
+                }
+            }
+            outStream.getFD().sync();
+        } finally {
+            outStream.close();
+        }
+        if (!tmp.renameTo(out)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + out);
+        }
+    }
+
+    private long hashAsset() throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = mContext.getAssets().open(FILE_NAME);
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    // True if the database parses to the end, e.g. it was not truncated
+    private static boolean isReadable(File jsonFile) {
+        try {
+            readSources(jsonFile, new SourceListener() {
+                @Override
+                public boolean onSource(MediaSource source) {
+                    return true;
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Database cannot be read. " + e.toString());
+            return false;
+        }
+    }
+
+    // Changes whenever the application, and so the bundled database, is updated
+    private long getInstallStamp() {
+        try {
+            return mContext.getPackageManager()
+                    .getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
         }
     }
 
@@ -66,22 +299,59 @@ public class MediaSourceManager {
         return s.hasNext() ? s.next() : "";
     }
 
+    /*
+     Makes sure the database is on external storage and up to date with the one
+     bundled in the application. The bundled database is identified by its CRC32,
+     which is only computed again after the application was updated. A newer
+     bundled database replaces the copy on storage unless that copy was edited.
+     Copies made before the hash was recorded are compared with the bundled
+     database instead, replaced if they cannot be read and otherwise taken as
+     provisioned, so the next bundled database refreshes them.
+     */
     private boolean ensureDatabaseWritable() {
         boolean success = false;
         try {
             File out = new File(Environment.getExternalStorageDirectory(), FILE_NAME);
-            if (out.exists()) {
+            SharedPreferences preferences = mContext.getSharedPreferences(
+                    PREF_NAME, Context.MODE_PRIVATE);
+            long installStamp = getInstallStamp();
+            if (out.exists() && preferences.getLong(PREF_INSTALL_STAMP, -1) == installStamp) {
                 Log.d(TAG, "Database is available on external storage.");
-                success = true;
-            } else {
-                AssetManager manager = mContext.getAssets();
-                InputStream in = manager.open(FILE_NAME);
-                out.createNewFile();
-                OutputStream outStream = new FileOutputStream(out);
-                copyFile(in, outStream);
+                return true;
+            }
 
-                success = true;
+            long assetHash = hashAsset();
+            long copiedHash = preferences.getLong(PREF_ASSET_HASH, -1);
+            if (!out.exists()) {
+                copyAsset(out);
+                Log.i(TAG, "Database copied to external storage.");
+            } else if (copiedHash == -1) {
+                // Copied by an older version, which did not record what it copied
+                long outHash = hashFile(out);
+                if (outHash != assetHash) {
+                    if (outHash != -1 && isReadable(out)) {
+                        // Taken as provisioned, later bundled versions replace it unless edited
+                        Log.i(TAG, "Database on external storage predates the hash, keeping it.");
+                        assetHash = outHash;
+                    } else {
+                        copyAsset(out);
+                        Log.i(TAG, "Unreadable database replaced with bundled version.");
+                    }
+                }
+            } else if (assetHash != copiedHash) {
+                if (hashFile(out) == copiedHash) {
+                    copyAsset(out);
+                    Log.i(TAG, "Database replaced with newer bundled version.");
+                } else {
+                    Log.i(TAG, "Database on external storage was edited, keeping it.");
+                    assetHash = copiedHash;
+                }
             }
+            preferences.edit()
+                    .putLong(PREF_INSTALL_STAMP, installStamp)
+                    .putLong(PREF_ASSET_HASH, assetHash)
+                    .apply();
+            success = true;
         } catch (Exception e) {
             Log.e(TAG, "Database is not available. " + e.toString());
         }
@@ -97,40 +367,601 @@ public class MediaSourceManager {
      In such case, the user can be presented with a notice to make sdcard available.
      */
     public List<MediaSource> getAllSources() {
-        List<MediaSource> allSources = new ArrayList<>();
+        final List<MediaSource> allSources = new ArrayList<>();
 
         // Copy JSON database to external storage if not there
         if (ensureDatabaseWritable()) {
+            File jsonFile = new File(Environment.getExternalStorageDirectory(), FILE_NAME);
             try {
-                File jsonFile = new File(Environment.getExternalStorageDirectory(), FILE_NAME);
-                InputStream jsonStream = new FileInputStream(jsonFile);
-                JSONTokener jsonTokener = new JSONTokener(convertStreamToString(jsonStream));
-                JSONArray jsonArray=new JSONArray(jsonTokener);
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject object = jsonArray.getJSONObject(i);
-                    String title = object.getString("title");
-                    String url = object.getString("url");
-                    String iconUrl = object.optString("iconUrl");
-                    JSONObject metadataJson = object.getJSONObject("metadata");
-                    Iterator<String> nameItr = metadataJson.keys();
-                    Map<String, Object> metadata = new HashMap<>();
-                    while(nameItr.hasNext()) {
-                        String name = nameItr.next();
-                        metadata.put(name, metadataJson.get(name));
+                readSources(jsonFile, new SourceListener() {
+                    @Override
+                    public boolean onSource(MediaSource source) {
+                        allSources.add(source);
+                        return true;
                     }
-                    // Add the source if the source if it was read without any exception
-                    MediaSource source = new MediaSource();
-                    source.presentableTitle = title;
-                    source.url = url;
-                    source.iconUrl = iconUrl;
-                    source.metadata = metadata;
-                    allSources.add(source);
-                }
+                });
             } catch (Exception e) {
-                Log.e(TAG, "Error reading database. " + e.toString());
+                // The streaming parser is stricter than org.json, retry with the tree parser.
+                Log.w(TAG, "Streaming read failed, falling back to tree parser. " + e.toString());
+                allSources.clear();
+                allSources.addAll(readSourcesFromTree(jsonFile));
             }
         }
 
         return allSources;
     }
+
+    /*
+     Returns the sources through the compiled binary catalog. Provider catalogs in
+     CATALOG_DIR_NAME are parsed in parallel and merged after the main database
+     (see CatalogFederation). The catalog is cached
+     for the whole process and only reloaded when the database really changed.
+     Decoded sources are kept in a paged window, see PagedCatalog. Entries are decoded
+     lazily on access, so opening even a very large database is almost free. The
+     binary catalog is rebuilt when it is missing or the JSON database is newer.
+     Falls back to getAllSources() if the binary catalog cannot be built.
+     */
+    public List<MediaSource> getCatalog() {
+        return getCatalog(null);
+    }
+
+    /*
+     Same as getCatalog(), but sources parsed while the binary catalog is being
+     (re)built are also handed to the listener as they are read, so callers can
+     show them before the whole database is processed. Returning false from the
+     listener cancels the load, in which case null is returned.
+     */
+    public List<MediaSource> getCatalog(SourceListener progress) {
+        File jsonFile = new File(Environment.getExternalStorageDirectory(), FILE_NAME);
+        synchronized (sCacheLock) {
+            if (sCachedCatalog != null && !sCacheDirty && jsonFile.exists()) {
+                List<File> files = getCatalogFiles();
+                long length = totalLength(files);
+                long modified = combinedModified(files);
+                if (length == sCachedLength && modified == sCachedModified) {
+                    Log.d(TAG, "Catalog unchanged, using cached sources.");
+                    return replayJournal(jsonFile);
+                }
+                // Touched but maybe not modified, compare the content before reloading
+                if (length == sCachedLength && sCachedHash != -1
+                        && hashFiles(files) == sCachedHash) {
+                    Log.d(TAG, "Catalog content unchanged, using cached sources.");
+                    sCachedModified = modified;
+                    return replayJournal(jsonFile);
+                }
+            }
+            sCacheDirty = false;
+            List<MediaSource> catalog = loadCatalog(progress);
+            if (catalog == null) {
+                Log.i(TAG, "Catalog load cancelled.");
+                sCacheDirty = true;
+                return null;
+            }
+            if (jsonFile.exists()) {
+                List<File> files = getCatalogFiles();
+                sBaseCatalog = catalog;
+                sCachedCatalog = catalog;
+                sCachedIndex = null;
+                sCachedLength = totalLength(files);
+                sCachedModified = combinedModified(files);
+                sJournalOffset = 0;
+                sJournalGeneration = getJournal().getGeneration();
+                startObserving(jsonFile);
+                return replayJournal(jsonFile);
+            }
+            return catalog;
+        }
+    }
+
+    /*
+     Returns the journal recording changes to the database. Content tools append
+     to it instead of rewriting the database, see CatalogJournal. There is one
+     journal for the process, its appends and compaction lock the same object.
+     */
+    public static synchronized CatalogJournal getJournal() {
+        if (sJournal == null) {
+            sJournal = new CatalogJournal(
+                    new File(Environment.getExternalStorageDirectory(), JOURNAL_FILE_NAME));
+        }
+        return sJournal;
+    }
+
+    /*
+     Applies the journal records added since the last call to the cached catalog.
+     Starts compacting the journal into the database when it got too long.
+     Called with sCacheLock held.
+     */
+    private static List<MediaSource> replayJournal(File jsonFile) {
+        CatalogJournal journal = getJournal();
+        List<CatalogJournal.Record> records = new ArrayList<>();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int generation = journal.getGeneration();
+            if (journal.length() < sJournalOffset || generation != sJournalGeneration) {
+                // Rewritten since the last read, apply it again from the start
+                Log.i(TAG, "Journal was replaced, replaying from start.");
+                sCachedCatalog = sBaseCatalog;
+                sJournalOffset = 0;
+                sJournalGeneration = generation;
+                sCachedIndex = null;
+            }
+            records.clear();
+            long offset = sJournalOffset;
+            try {
+                offset = journal.read(sJournalOffset, records);
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading journal. " + e.toString());
+            }
+            if (journal.getGeneration() == generation) {
+                sJournalOffset = offset;
+                break;
+            }
+            // Rewritten while it was read, the records may come from either file
+            records.clear();
+        }
+        if (!records.isEmpty()) {
+            JournaledCatalog base = sCachedCatalog instanceof JournaledCatalog
+                    ? (JournaledCatalog) sCachedCatalog : new JournaledCatalog(sCachedCatalog);
+            sCachedCatalog = base.apply(records);
+            sCachedIndex = null;
+            Log.i(TAG, "Applied " + records.size() + " journal records.");
+        }
+        if (journal.length() > JOURNAL_COMPACT_SIZE && !sCompacting) {
+            if (getCatalogFiles().size() == 1) {
+                compactJournal(journal, jsonFile, sCachedCatalog, sJournalOffset);
+            } else if (journal.length() > sCondensedLength + JOURNAL_COMPACT_SIZE) {
+                // Provider entries would be folded into the main file, keep one record per url instead
+                condenseJournal(journal, sJournalOffset);
+            }
+        }
+        return sCachedCatalog;
+    }
+
+    private static void condenseJournal(final CatalogJournal journal, final long offset) {
+        sCompacting = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    long length = journal.condense(offset);
+                    sCondensedLength = length;
+                    if (length > JOURNAL_COMPACT_SIZE) {
+                        Log.w(TAG, "Journal is still " + length + " bytes after condensing,"
+                                + " it only shrinks when the catalog is a single file.");
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error condensing journal. " + e.toString());
+                } finally {
+                    sCompacting = false;
+                }
+            }
+        }, "CatalogJournalCompaction").start();
+    }
+
+    private static void compactJournal(final CatalogJournal journal, final File jsonFile,
+                                       final List<MediaSource> catalog, final long offset) {
+        sCompacting = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    journal.compact(catalog, jsonFile, offset);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error compacting journal. " + e.toString());
+                } finally {
+                    sCompacting = false;
+                }
+            }
+        }, "CatalogJournalCompaction").start();
+    }
+
+    /*
+     Returns the per file report of the last catalog merged from several files,
+     or null if the catalog was loaded from the main database only.
+     */
+    public static CatalogFederation.Result getLastFederationResult() {
+        synchronized (sCacheLock) {
+            return sLastFederation;
+        }
+    }
+
+    /*
+     The main database followed by the provider catalogs found in CATALOG_DIR_NAME,
+     sorted by name so the merged order is stable.
+     */
+    private static List<File> getCatalogFiles() {
+        List<File> files = new ArrayList<>();
+        files.add(new File(Environment.getExternalStorageDirectory(), FILE_NAME));
+        File[] providers = new File(Environment.getExternalStorageDirectory(), CATALOG_DIR_NAME)
+                .listFiles(new FileFilter() {
+                    @Override
+                    public boolean accept(File file) {
+                        return file.isFile() && file.getName().endsWith(CATALOG_EXTENSION);
+                    }
+                });
+        if (providers != null) {
+            Arrays.sort(providers);
+            files.addAll(Arrays.asList(providers));
+        }
+        return files;
+    }
+
+    static long totalLength(List<File> files) {
+        long length = 0;
+        for (File file : files) {
+            length += file.length();
+        }
+        return length;
+    }
+
+    // Changes when any file is modified, added or removed
+    static long combinedModified(List<File> files) {
+        long modified = files.size();
+        for (File file : files) {
+            modified = modified * 31 + file.lastModified();
+        }
+        return modified;
+    }
+
+    // CRC32 of the files one after the other, -1 if one cannot be read
+    static long hashFiles(List<File> files) {
+        CRC32 crc = new CRC32();
+        for (File file : files) {
+            if (!hashFile(file, crc)) {
+                return -1;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /*
+     Drops the cached catalog, the next getCatalog() call reloads the database.
+     */
+    public static void invalidateCache() {
+        synchronized (sCacheLock) {
+            sBaseCatalog = null;
+            sCachedCatalog = null;
+            sCachedIndex = null;
+            sCacheDirty = true;
+        }
+    }
+
+    /*
+     Searches the titles, descriptions and types of the loaded catalog. Returns
+     the positions in the list returned by getCatalog(), best match first, or
+     null if no catalog has been loaded yet.
+     */
+    public static int[] search(String query, int limit) {
+        CatalogSearchIndex index = getSearchIndex();
+        return index != null ? index.search(query, limit) : null;
+    }
+
+    /*
+     Returns the search index over the loaded catalog, building it on first use,
+     or null if no catalog has been loaded yet. Building decodes every source, so
+     it is done outside sCacheLock and does not hold up loading the catalog.
+     Can be called in background ahead of the first search.
+     */
+    public static CatalogSearchIndex getSearchIndex() {
+        List<MediaSource> catalog;
+        synchronized (sCacheLock) {
+            if (sCachedIndex != null || sCachedCatalog == null) {
+                return sCachedIndex;
+            }
+            catalog = sCachedCatalog;
+        }
+        synchronized (sIndexLock) {
+            synchronized (sCacheLock) {
+                if (sCachedIndex != null && sCachedCatalog == catalog) {
+                    return sCachedIndex;
+                }
+            }
+            CatalogSearchIndex index = CatalogSearchIndex.build(catalog);
+            synchronized (sCacheLock) {
+                // Dropped if the catalog was reloaded meanwhile
+                if (sCachedCatalog == catalog) {
+                    sCachedIndex = index;
+                }
+            }
+            return index;
+        }
+    }
+
+    private static void startObserving(File jsonFile) {
+        if (sObserver != null || jsonFile.getParentFile() == null) {
+            return;
+        }
+        sObserver = new FileObserver(jsonFile.getParent(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (FILE_NAME.equals(path) || CATALOG_DIR_NAME.equals(path)) {
+                    Log.d(TAG, "Database changed on storage, event=" + event);
+                    sCacheDirty = true;
+                }
+            }
+        };
+        sObserver.startWatching();
+        File providers = new File(jsonFile.getParentFile(), CATALOG_DIR_NAME);
+        sProviderObserver = new FileObserver(providers.getPath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null && path.endsWith(CATALOG_EXTENSION)) {
+                    Log.d(TAG, "Provider catalog changed on storage, event=" + event);
+                    sCacheDirty = true;
+                }
+            }
+        };
+        sProviderObserver.startWatching();
+    }
+
+    private static long hashFile(File file) {
+        CRC32 crc = new CRC32();
+        return hashFile(file, crc) ? crc.getValue() : -1;
+    }
+
+    private static boolean hashFile(File file, CRC32 crc) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error hashing database. " + e.toString());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+        return true;
+    }
+
+    // Called with sCacheLock held
+    private List<MediaSource> loadCatalog(SourceListener progress) {
+        if (!ensureDatabaseWritable()) {
+            return new ArrayList<>();
+        }
+        File jsonFile = new File(Environment.getExternalStorageDirectory(), FILE_NAME);
+        File binFile = new File(mContext.getCacheDir(), BINARY_FILE_NAME);
+        List<File> files = getCatalogFiles();
+        long length = totalLength(files);
+        long modified = combinedModified(files);
+        List<MediaSource> fallback = null;
+        sCachedHash = -1;
+        BinaryCatalog catalog = BinaryCatalog.open(binFile, length, modified);
+        if (catalog == null) {
+            try {
+                if (files.size() == 1) {
+                    sLastFederation = null;
+                    if (!BinaryCatalog.compile(jsonFile, binFile, length, modified, progress)) {
+                        return null;
+                    }
+                } else {
+                    CatalogFederation.Result result = CatalogFederation.load(files);
+                    sLastFederation = result;
+                    fallback = result.sources;
+                    if (progress != null) {
+                        for (MediaSource source : result.sources) {
+                            if (!progress.onSource(source)) {
+                                return null;
+                            }
+                        }
+                    }
+                    BinaryCatalog.write(result.sources, length, modified, hashFiles(files),
+                            binFile);
+                }
+                catalog = BinaryCatalog.open(binFile, length, modified);
+            } catch (IOException e) {
+                Log.e(TAG, "Error compiling binary catalog. " + e.toString());
+            }
+        }
+        if (catalog == null) {
+            return fallback != null ? fallback : getAllSources();
+        }
+        sCachedHash = catalog.getSourceHash();
+        // Keep only a window of decoded sources around what the list shows
+        return new PagedCatalog(catalog);
+    }
+
+    /*
+     Streams the JSON database token by token and hands every media source to the
+     listener as soon as it is complete, without holding the whole file in memory.
+     Entries missing a mandatory field are skipped. Returns false if the listener
+     stopped the read before the end of the database.
+     */
+    public static boolean readSources(File jsonFile, SourceListener listener) throws IOException {
+        InputStream jsonStream = new FileInputStream(jsonFile);
+        try {
+            return readSources(jsonStream, listener);
+        } finally {
+            jsonStream.close();
+        }
+    }
+
+    public static boolean readSources(InputStream jsonStream, SourceListener listener)
+            throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(jsonStream, "UTF-8"), READ_BUFFER_SIZE));
+        reader.setLenient(true);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            MediaSource source = readSource(reader);
+            if (source == null) {
+                continue;
+            }
+            if (!listener.onSource(source)) {
+                return false;
+            }
+        }
+        reader.endArray();
+        return true;
+    }
+
+    private static MediaSource readSource(JsonReader reader) throws IOException {
+        String title = null;
+        String url = null;
+        String iconUrl = "";
+        Map<String, Object> metadata = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "title":
+                    title = reader.nextString();
+                    break;
+                case "url":
+                    url = reader.nextString();
+                    break;
+                case "iconUrl":
+                    iconUrl = reader.nextString();
+                    break;
+                case "metadata":
+                    metadata = readMetadata(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (title == null || url == null || metadata == null) {
+            Log.w(TAG, "Skipping incomplete source. title=" + title + " url=" + url);
+            return null;
+        }
+        MediaSource source = new MediaSource();
+        source.presentableTitle = title;
+        source.url = url;
+        source.iconUrl = iconUrl;
+        source.metadata = metadata;
+        return source;
+    }
+
+    private static Map<String, Object> readMetadata(JsonReader reader) throws IOException {
+        Map<String, Object> metadata = new CompactMetadata();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            metadata.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return metadata;
+    }
+
+    /*
+     Reads any JSON value into the same types org.json produces, so the metadata
+     serializes exactly like it did with the tree parser.
+     */
+    private static Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    try {
+                        // Shares repeated values such as track languages
+                        object.put(name, CompactMetadata.internValue(name, readValue(reader)));
+                    } catch (JSONException e) {
+                        throw new IOException("Invalid value for " + name, e);
+                    }
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.valueOf(number);
+                } catch (NumberFormatException e) {
+                    return Double.valueOf(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    /*
+     Original parser, kept as a fallback. It reads the whole database into memory
+     and builds a complete JSON tree before creating any media source.
+     */
+    static List<MediaSource> readSourcesFromTree(File jsonFile) {
+        List<MediaSource> allSources = new ArrayList<>();
+        InputStream jsonStream = null;
+        try {
+            jsonStream = new FileInputStream(jsonFile);
+            JSONTokener jsonTokener = new JSONTokener(convertStreamToString(jsonStream));
+            JSONArray jsonArray=new JSONArray(jsonTokener);
+            for (int i = 0; i < jsonArray.length(); i++) {
+                // Add the source if the source if it was read without any exception
+                allSources.add(fromJson(jsonArray.getJSONObject(i)));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading database. " + e.toString());
+        } finally {
+            closeQuietly(jsonStream);
+        }
+        return allSources;
+    }
+
+    /*
+     Builds a media source from one JSON database entry.
+     */
+    static MediaSource fromJson(JSONObject object) throws JSONException {
+        String title = object.getString("title");
+        String url = object.getString("url");
+        String iconUrl = object.optString("iconUrl");
+        JSONObject metadataJson = object.getJSONObject("metadata");
+        Iterator<String> nameItr = metadataJson.keys();
+        Map<String, Object> metadata = new CompactMetadata();
+        while(nameItr.hasNext()) {
+            String name = nameItr.next();
+            metadata.put(name, metadataJson.get(name));
+        }
+        MediaSource source = new MediaSource();
+        source.presentableTitle = title;
+        source.url = url;
+        source.iconUrl = iconUrl;
+        source.metadata = metadata;
+        return source;
+    }
+
+    /*
+     Inverse of fromJson(), used when the database is written back.
+     */
+    static JSONObject toJson(MediaSource source) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("title", source.presentableTitle);
+        object.put("url", source.url);
+        object.put("iconUrl", source.iconUrl);
+        object.put("metadata", new JSONObject(source.getMetadataJson()));
+        return object;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing stream. " + e.toString());
+            }
+        }
+    }
 }
@@ -0,0 +1,207 @@
+/**
+ * PagedCatalog.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ Windowed view over a lazily decoded catalog (see BinaryCatalog).
+
+ Decoded sources are kept in fixed size pages. Only the most recently used
+ pages stay in memory, so memory use does not depend on the catalog size.
+ The list reports the visible range through setVisibleRange() and the next
+ page in the scroll direction is decoded in background before it is needed.
+
+ get() returns the same MediaSource for a position as long as anything still
+ holds on to it, e.g. a bound row, the probe cache or the source being flung,
+ even if its page was evicted and decoded again in between.
+ */
+public class PagedCatalog extends AbstractList<MediaSourceManager.MediaSource>
+        implements CatalogRecords {
+
+    private static final String TAG = PagedCatalog.class.getName();
+
+    // Sources per page
+    private static final int PAGE_SIZE = 50;
+    // Pages kept in memory, must cover a screen plus the prefetched pages
+    private static final int MAX_PAGES = 8;
+    // Pages decoded ahead of the visible range in the scroll direction
+    private static final int PREFETCH_PAGES = 1;
+
+    private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private final List<MediaSourceManager.MediaSource> mSource;
+    private final Object mPagesLock = new Object();
+    // Access ordered, the eldest page is the least recently used one
+    private final LinkedHashMap<Integer, MediaSourceManager.MediaSource[]> mPages =
+            new LinkedHashMap<Integer, MediaSourceManager.MediaSource[]>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Integer, MediaSourceManager.MediaSource[]> eldest) {
+            if (size() <= MAX_PAGES) {
+                return false;
+            }
+            int start = eldest.getKey() * PAGE_SIZE;
+            MediaSourceManager.MediaSource[] sources = eldest.getValue();
+            for (int i = 0; i < sources.length; i++) {
+                mEvicted.put(start + i, new EvictedSource(start + i, sources[i], mReleased));
+            }
+            return true;
+        }
+    };
+    // Sources of evicted pages by position, until they are garbage collected
+    private final Map<Integer, EvictedSource> mEvicted = new HashMap<>();
+    private final ReferenceQueue<MediaSourceManager.MediaSource> mReleased = new ReferenceQueue<>();
+    // Pages queued or being decoded in background, guarded by mPagesLock
+    private final boolean[] mPrefetching;
+    private int mLastFirstVisible = 0;
+
+    public PagedCatalog(List<MediaSourceManager.MediaSource> source) {
+        mSource = source;
+        mPrefetching = new boolean[(source.size() + PAGE_SIZE - 1) / PAGE_SIZE];
+    }
+
+    @Override
+    public int size() {
+        return mSource.size();
+    }
+
+    @Override
+    public MediaSourceManager.MediaSource get(int location) {
+        if (location < 0 || location >= size()) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + size());
+        }
+        return getPage(location / PAGE_SIZE)[location % PAGE_SIZE];
+    }
+
+    /*
+     Returns the url of the source at location. Pages are neither decoded nor
+     touched if the catalog below can read urls alone.
+     */
+    @Override
+    public String getUrl(int location) {
+        if (mSource instanceof CatalogRecords) {
+            return ((CatalogRecords) mSource).getUrl(location);
+        }
+        return get(location).url;
+    }
+
+    @Override
+    public int getContentHash(int location) {
+        if (mSource instanceof CatalogRecords) {
+            return ((CatalogRecords) mSource).getContentHash(location);
+        }
+        return get(location).getContentHash();
+    }
+
+    /*
+     Called with the range shown by the list. Decodes the pages following the
+     range, in the direction the user is scrolling. A page is queued once,
+     however many scroll callbacks ask for it before it is decoded.
+     */
+    public void setVisibleRange(int firstVisible, int visibleCount) {
+        int direction = firstVisible >= mLastFirstVisible ? 1 : -1;
+        mLastFirstVisible = firstVisible;
+        int edge = direction > 0 ? firstVisible + visibleCount - 1 : firstVisible;
+        int edgePage = edge / PAGE_SIZE;
+        int pageCount = (size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int i = 1; i <= PREFETCH_PAGES; i++) {
+            final int page = edgePage + i * direction;
+            if (page < 0 || page >= pageCount) {
+                break;
+            }
+            synchronized (mPagesLock) {
+                if (mPrefetching[page] || mPages.containsKey(page)) {
+                    continue;
+                }
+                mPrefetching[page] = true;
+            }
+            sPrefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getPage(page);
+                    } finally {
+                        synchronized (mPagesLock) {
+                            mPrefetching[page] = false;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private MediaSourceManager.MediaSource[] getPage(int page) {
+        int start = page * PAGE_SIZE;
+        int end = Math.min(start + PAGE_SIZE, size());
+        MediaSourceManager.MediaSource[] sources = new MediaSourceManager.MediaSource[end - start];
+        synchronized (mPagesLock) {
+            MediaSourceManager.MediaSource[] existing = mPages.get(page);
+            if (existing != null) {
+                return existing;
+            }
+            expungeEvicted();
+            // Sources of the page still in use elsewhere are not decoded again
+            for (int i = start; i < end; i++) {
+                EvictedSource evicted = mEvicted.get(i);
+                sources[i - start] = evicted != null ? evicted.get() : null;
+            }
+        }
+        // Decode outside the lock so the list is not blocked by a prefetch
+        for (int i = start; i < end; i++) {
+            if (sources[i - start] == null) {
+                sources[i - start] = mSource.get(i);
+            }
+        }
+        synchronized (mPagesLock) {
+            MediaSourceManager.MediaSource[] existing = mPages.get(page);
+            if (existing != null) {
+                return existing;
+            }
+            for (int i = start; i < end; i++) {
+                mEvicted.remove(i);
+            }
+            mPages.put(page, sources);
+        }
+        Log.d(TAG, "Decoded page " + page);
+        return sources;
+    }
+
+    // Drops the positions whose evicted source was garbage collected
+    private void expungeEvicted() {
+        EvictedSource released;
+        while ((released = (EvictedSource) mReleased.poll()) != null) {
+            if (mEvicted.get(released.mLocation) == released) {
+                mEvicted.remove(released.mLocation);
+            }
+        }
+    }
+
+    private static class EvictedSource extends WeakReference<MediaSourceManager.MediaSource> {
+        final int mLocation;
+
+        EvictedSource(int location, MediaSourceManager.MediaSource source,
+                      ReferenceQueue<MediaSourceManager.MediaSource> queue) {
+            super(source, queue);
+            mLocation = location;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * PickerUpdateCoalescer.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ Folds the discovery events of a burst into one picker refresh.
+
+ Discovery threads call requestUpdate() after changing the registry. The
+ first request schedules a refresh on the next frame, at most one per
+ interval; the requests made before it runs are dropped, the refresh picks
+ up their changes from the registry snapshot anyway. The refresh merges the
+ sorted snapshot into the shown lists, inserting and removing only the
+ players that came or went. Known receivers discovery has not found yet are
+ listed after the players, as stale names without a player, until found.
+ Must be created on the main thread.
+ */
+public class PickerUpdateCoalescer {
+
+    private static final String TAG = PickerUpdateCoalescer.class.getName();
+
+    // Zero refreshes on every frame
+    public static final long DEFAULT_INTERVAL_MS = 0;
+
+    public interface Callback {
+        /*
+         Called on the main thread after the shown lists changed.
+         */
+        void onPickerUpdated(int inserted, int removed, int changed);
+    }
+
+    private final DeviceRegistry mRegistry;
+    private final Comparator<RemoteMediaPlayer> mComparator;
+    // Shown players and their names, then the names of mStale, main thread only
+    private final List<RemoteMediaPlayer> mDevices;
+    private final List<String> mNames;
+    private List<KnownDeviceCache.Entry> mKnown = Collections.emptyList();
+    private final List<KnownDeviceCache.Entry> mStale = new ArrayList<>();
+    private String mStaleFormat;
+    private final Callback mCallback;
+    private final long mIntervalMs;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final AtomicBoolean mPending = new AtomicBoolean();
+    private long mLastRefreshTime;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+    private int mRefreshes;
+
+    public PickerUpdateCoalescer(DeviceRegistry registry, Comparator<RemoteMediaPlayer> comparator,
+                                 List<RemoteMediaPlayer> devices, List<String> names,
+                                 Callback callback) {
+        this(registry, comparator, devices, names, callback, DEFAULT_INTERVAL_MS);
+    }
+
+    public PickerUpdateCoalescer(DeviceRegistry registry, Comparator<RemoteMediaPlayer> comparator,
+                                 List<RemoteMediaPlayer> devices, List<String> names,
+                                 Callback callback, long intervalMs) {
+        mRegistry = registry;
+        mComparator = comparator;
+        mDevices = devices;
+        mNames = names;
+        mCallback = callback;
+        mIntervalMs = intervalMs;
+    }
+
+    /*
+     Schedules a refresh, unless one is already scheduled. Any thread.
+     */
+    public void requestUpdate() {
+        mRequests.incrementAndGet();
+        if (!mPending.compareAndSet(false, true)) {
+            mDropped.incrementAndGet();
+            return;
+        }
+        long delay = mLastRefreshTime + mIntervalMs - SystemClock.uptimeMillis();
+        mMainHandler.postDelayed(mSchedule, Math.max(delay, 0));
+    }
+
+    /*
+     Drops a scheduled refresh. Main thread.
+     */
+    public void cancel() {
+        mMainHandler.removeCallbacks(mSchedule);
+        mChoreographer.removeFrameCallback(mRefresh);
+        mPending.set(false);
+    }
+
+    /*
+     Applies the registry snapshot now. Main thread.
+     */
+    public void flush() {
+        cancel();
+        refresh();
+    }
+
+    /*
+     Sets the known receivers to list until discovery finds them, named with
+     staleFormat (a format string taking the name). Main thread.
+     */
+    public void setKnownDevices(List<KnownDeviceCache.Entry> known, String staleFormat) {
+        mKnown = known;
+        mStaleFormat = staleFormat;
+        flush();
+    }
+
+    /*
+     Returns the known receiver shown at a position of the name list, or null
+     if a player is shown there. Main thread.
+     */
+    public KnownDeviceCache.Entry getStaleEntry(int position) {
+        int index = position - mDevices.size();
+        return index >= 0 && index < mStale.size() ? mStale.get(index) : null;
+    }
+
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    public int getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public String toString() {
+        return "requests=" + mRequests.get() + " dropped=" + mDropped.get()
+                + " refreshes=" + mRefreshes;
+    }
+
+    private final Runnable mSchedule = new Runnable() {
+        @Override
+        public void run() {
+            mChoreographer.postFrameCallback(mRefresh);
+        }
+    };
+
+    private final Choreographer.FrameCallback mRefresh = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            refresh();
+        }
+    };
+
+    private void refresh() {
+        // Cleared first: a change made while merging schedules another refresh
+        mPending.set(false);
+        mLastRefreshTime = SystemClock.uptimeMillis();
+        mRefreshes++;
+        List<RemoteMediaPlayer> snapshot = mRegistry.getSnapshot();
+        int inserted = 0;
+        int removed = 0;
+        int changed = 0;
+        int i = 0;
+        int j = 0;
+        // Both lists are sorted with the comparator
+        while (i < mDevices.size() || j < snapshot.size()) {
+            if (j == snapshot.size()) {
+                remove(i);
+                removed++;
+                continue;
+            }
+            RemoteMediaPlayer device = snapshot.get(j);
+            if (i == mDevices.size()) {
+                insert(i++, device);
+                inserted++;
+                j++;
+                continue;
+            }
+            RemoteMediaPlayer shown = mDevices.get(i);
+            if (shown.getUniqueIdentifier().equals(device.getUniqueIdentifier())
+                    && shown.getName().equals(device.getName())) {
+                if (shown != device) {
+                    mDevices.set(i, device);
+                    changed++;
+                }
+                i++;
+                j++;
+            } else if (mComparator.compare(shown, device) < 0) {
+                remove(i);
+                removed++;
+            } else {
+                insert(i++, device);
+                inserted++;
+                j++;
+            }
+        }
+        // Few known receivers, the stale tail is replaced as a whole
+        List<KnownDeviceCache.Entry> stale = new ArrayList<>();
+        for (KnownDeviceCache.Entry entry : mKnown) {
+            if (mRegistry.get(entry.uniqueIdentifier) == null) {
+                stale.add(entry);
+            }
+        }
+        if (!stale.equals(mStale)) {
+            removed += mStale.size();
+            inserted += stale.size();
+            mStale.clear();
+            mStale.addAll(stale);
+            mNames.subList(mDevices.size(), mNames.size()).clear();
+            for (KnownDeviceCache.Entry entry : stale) {
+                mNames.add(String.format(mStaleFormat, entry.name));
+            }
+        }
+        if (inserted + removed + changed > 0) {
+            Log.d(TAG, "refresh: " + inserted + " inserted, " + removed + " removed, "
+                    + changed + " changed (" + this + ")");
+            mCallback.onPickerUpdated(inserted, removed, changed);
+        }
+    }
+
+    private void insert(int index, RemoteMediaPlayer device) {
+        mDevices.add(index, device);
+        mNames.add(index, device.getName());
+    }
+
+    private void remove(int index) {
+        mDevices.remove(index);
+        mNames.remove(index);
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * RemoteCallExecutor.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer.FutureListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*
+ Runs remote player calls without parking a thread on each one.
+
+ A call is started on the player and completes through the SDK's getAsync
+ callback; its result is posted to the main thread. A call submitted while
+ one with the same name is queued or in flight on the same player does not
+ go out again, it joins the pending one: only the first call is started,
+ and every joined call gets its result, through BackgroundResult and its
+ callback. At most a few calls per player are in flight, the others wait
+ in a queue.
+ */
+public class RemoteCallExecutor {
+
+    private static final String TAG = RemoteCallExecutor.class.getName();
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private static RemoteCallExecutor sDefault;
+
+    public interface Call<T> {
+        RemoteMediaPlayer.AsyncFuture<T> start(RemoteMediaPlayer device);
+    }
+
+    /*
+     Optionally implemented by a Call to process its result, e.g. parse it,
+     on the thread completing the call before the callbacks are posted.
+     Called for every call that joined the request, in submission order.
+     */
+    public interface BackgroundResult<T> {
+        void onBackgroundResult(RemoteMediaPlayer device, T result);
+    }
+
+    /*
+     Called on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Throwable error);
+    }
+
+    public static class Stats {
+        public int submitted;
+        public int deduplicated;
+        public int completed;
+        public int failed;
+        public int inFlight;
+        public int queued;
+        public int maxQueued;
+        public long totalLatencyMs;
+        public long maxLatencyMs;
+
+        public String toString() {
+            return "submitted=" + submitted + " deduplicated=" + deduplicated
+                    + " completed=" + completed + " failed=" + failed
+                    + " inFlight=" + inFlight + " queued=" + queued + "/" + maxQueued
+                    + " latency=" + (completed > 0 ? totalLatencyMs / completed : 0)
+                    + "/" + maxLatencyMs + "ms";
+        }
+    }
+
+    private final int mMaxInFlight;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Queued and in flight calls, by player and name
+    private final Map<String, Request<?>> mRequests = new HashMap<>();
+    // Calls waiting for a slot, by player
+    private final Map<String, ArrayDeque<Request<?>>> mQueues = new HashMap<>();
+    // Calls in flight, by player
+    private final Map<String, Integer> mInFlight = new HashMap<>();
+    private final Stats mStats = new Stats();
+
+    public RemoteCallExecutor(int maxInFlight) {
+        mMaxInFlight = maxInFlight;
+    }
+
+    public static synchronized RemoteCallExecutor getDefault() {
+        if (sDefault == null) {
+            sDefault = new RemoteCallExecutor(DEFAULT_MAX_IN_FLIGHT);
+        }
+        return sDefault;
+    }
+
+    /*
+     Runs call on device, or joins the pending call with the same name on it.
+     The name identifies the query and the type it returns: calls whose
+     result depends on more than the player, e.g. the media asked about,
+     must put that in the name too. A call of another class never joins,
+     so the result always has the type the call expects. Any thread.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void submit(RemoteMediaPlayer device, String name, Call<T> call,
+                           Callback<T> callback) {
+        String key = device.getUniqueIdentifier() + "/" + name + "/" + call.getClass().getName();
+        Request<T> request;
+        synchronized (this) {
+            mStats.submitted++;
+            // Same key means same call class, which fixes T
+            Request<T> pending = (Request<T>) mRequests.get(key);
+            if (pending != null) {
+                pending.join(call, callback);
+                mStats.deduplicated++;
+                return;
+            }
+            request = new Request<>(key, device, call);
+            request.join(call, callback);
+            mRequests.put(key, request);
+            if (getInFlight(device) >= mMaxInFlight) {
+                ArrayDeque<Request<?>> queue = mQueues.get(device.getUniqueIdentifier());
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    mQueues.put(device.getUniqueIdentifier(), queue);
+                }
+                queue.add(request);
+                mStats.queued++;
+                mStats.maxQueued = Math.max(mStats.maxQueued, mStats.queued);
+                return;
+            }
+            onStart(request);
+        }
+        request.start();
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.submitted = mStats.submitted;
+        stats.deduplicated = mStats.deduplicated;
+        stats.completed = mStats.completed;
+        stats.failed = mStats.failed;
+        stats.inFlight = mStats.inFlight;
+        stats.queued = mStats.queued;
+        stats.maxQueued = mStats.maxQueued;
+        stats.totalLatencyMs = mStats.totalLatencyMs;
+        stats.maxLatencyMs = mStats.maxLatencyMs;
+        return stats;
+    }
+
+    private int getInFlight(RemoteMediaPlayer device) {
+        Integer count = mInFlight.get(device.getUniqueIdentifier());
+        return count != null ? count : 0;
+    }
+
+    // Called with the lock held
+    private void onStart(Request<?> request) {
+        mInFlight.put(request.mDevice.getUniqueIdentifier(), getInFlight(request.mDevice) + 1);
+        mStats.inFlight++;
+        request.mStartTime = SystemClock.uptimeMillis();
+    }
+
+    private void onComplete(Request<?> request, boolean failed) {
+        Request<?> next = null;
+        synchronized (this) {
+            mRequests.remove(request.mKey);
+            String id = request.mDevice.getUniqueIdentifier();
+            int inFlight = getInFlight(request.mDevice) - 1;
+            mStats.inFlight--;
+            long latency = SystemClock.uptimeMillis() - request.mStartTime;
+            mStats.completed++;
+            mStats.totalLatencyMs += latency;
+            mStats.maxLatencyMs = Math.max(mStats.maxLatencyMs, latency);
+            if (failed) {
+                mStats.failed++;
+            }
+            ArrayDeque<Request<?>> queue = mQueues.get(id);
+            if (queue != null) {
+                next = queue.poll();
+                if (queue.isEmpty()) {
+                    mQueues.remove(id);
+                }
+            }
+            if (inFlight > 0) {
+                mInFlight.put(id, inFlight);
+            } else {
+                mInFlight.remove(id);
+            }
+            if (next != null) {
+                mStats.queued--;
+                onStart(next);
+            }
+        }
+        if (next != null) {
+            next.start();
+        }
+    }
+
+    private class Request<T> implements FutureListener<T> {
+        final String mKey;
+        final RemoteMediaPlayer mDevice;
+        final Call<T> mCall;
+        // Joined calls and their callbacks, mCall first. Guarded by the
+        // executor lock until the call completes.
+        final List<Call<T>> mCalls = new ArrayList<>(1);
+        final List<Callback<T>> mCallbacks = new ArrayList<>(1);
+        long mStartTime;
+
+        Request(String key, RemoteMediaPlayer device, Call<T> call) {
+            mKey = key;
+            mDevice = device;
+            mCall = call;
+        }
+
+        void join(Call<T> call, Callback<T> callback) {
+            mCalls.add(call);
+            mCallbacks.add(callback);
+        }
+
+        void start() {
+            try {
+                mCall.start(mDevice).getAsync(this);
+            } catch (RuntimeException e) {
+                complete(null, e);
+            }
+        }
+
+        @Override
+        public void futureIsNow(Future<T> future) {
+            try {
+                complete(future.get(), null);
+            } catch (ExecutionException e) {
+                complete(null, e.getCause() != null ? e.getCause() : e);
+            } catch (Exception e) {
+                complete(null, e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(final T result, final Throwable error) {
+            // No call joins once the request is completed
+            onComplete(this, error != null);
+            final List<Call<T>> calls;
+            final List<Callback<T>> callbacks;
+            synchronized (RemoteCallExecutor.this) {
+                calls = new ArrayList<>(mCalls);
+                callbacks = new ArrayList<>(mCallbacks);
+            }
+            if (error != null) {
+                Log.e(TAG, mKey + " failed: " + error.toString());
+            } else {
+                for (Call<T> call : calls) {
+                    if (call instanceof BackgroundResult) {
+                        ((BackgroundResult<T>) call).onBackgroundResult(mDevice, result);
+                    }
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback<T> callback : callbacks) {
+                        if (error == null) {
+                            callback.onResult(result);
+                        } else {
+                            callback.onError(error);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * SessionStateCache.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import com.amazon.whisperplay.fling.media.controller.RemoteMediaPlayer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ What is known of the media each player plays: duration, title and
+ subtitle tracks, kept for the process.
+
+ A state belongs to one player and one media url. It is replaced when a
+ source is set on the player and dropped when the media finishes or goes
+ away, so the duration and info are asked once per media rather than after
+ every ReadyToPlay, rejoin or new activity.
+ */
+public class SessionStateCache {
+
+    private static SessionStateCache sDefault;
+
+    public static class State {
+        public final String url;
+        private volatile long mDuration = -1;
+        private volatile boolean mInfoSet;
+        private volatile String mTitle;
+        private volatile Object mTracks;
+
+        State(String url) {
+            this.url = url;
+        }
+
+        public boolean hasDuration() {
+            return mDuration > 0;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        public void setDuration(long duration) {
+            mDuration = duration;
+        }
+
+        public boolean hasInfo() {
+            return mInfoSet;
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        // The "tracks" metadata, see SubtitleCache.getPreferredTrack
+        public Object getTracks() {
+            return mTracks;
+        }
+
+        public void setInfo(String title, Object tracks) {
+            mTitle = title;
+            mTracks = tracks;
+            mInfoSet = true;
+        }
+
+        public String toString() {
+            return url + " duration=" + mDuration + " title=" + mTitle;
+        }
+    }
+
+    // States by player identifier, one media per player
+    private final ConcurrentHashMap<String, State> mStates = new ConcurrentHashMap<>();
+
+    public static synchronized SessionStateCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new SessionStateCache();
+        }
+        return sDefault;
+    }
+
+    /*
+     Starts a new state for a source set on the player. Any previous state of
+     the player is dropped.
+     */
+    public State start(RemoteMediaPlayer device, String url) {
+        State state = new State(url);
+        mStates.put(device.getUniqueIdentifier(), state);
+        return state;
+    }
+
+    /*
+     Returns the state of url on the player, null if the player is not known
+     to play url, e.g. another sender flung something else since.
+     */
+    public State peek(RemoteMediaPlayer device, String url) {
+        State state = mStates.get(device.getUniqueIdentifier());
+        return state != null && url != null && url.equals(state.url) ? state : null;
+    }
+
+    /*
+     Returns the state of url on the player, starting one if the player was
+     known to play something else or nothing, e.g. after a rejoin.
+     */
+    public State get(RemoteMediaPlayer device, String url) {
+        State state = peek(device, url);
+        return state != null ? state : start(device, url);
+    }
+
+    public void invalidate(RemoteMediaPlayer device) {
+        mStates.remove(device.getUniqueIdentifier());
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * SubtitleCache.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ Subtitle tracks of the catalog (the "tracks" metadata), fetched ahead of playback.
+
+ Tracks are downloaded in background when a source is selected and kept as
+ files in the cache directory, the least recently used files are deleted
+ once the directory grows past its budget. Parsed cues are kept in a memory
+ LRU bounded by their approximate size, so lookups from the UI thread never
+ touch the network or the disk. A track that failed to load is not asked
+ again before its retry delay, which doubles with every failure.
+ */
+public class SubtitleCache {
+
+    private static final String TAG = SubtitleCache.class.getName();
+
+    private static final int MEMORY_BYTES = 1024 * 1024;
+    private static final long DISK_BYTES = 8 * 1024 * 1024L;
+    private static final int TIMEOUT_MS = 10000;
+    private static final String DIRECTORY = "subtitles";
+    // Delay before a track that failed to load is tried again, doubled up to the maximum
+    private static final long RETRY_MIN_MS = 30 * 1000L;
+    private static final long RETRY_MAX_MS = 30 * 60 * 1000L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static SubtitleCache sDefault;
+
+    private final File mDirectory;
+    private final LruCache<String, SubtitleCues> mMemory;
+    // One download at a time, selecting several items in a row queues them
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Boolean> mPending = new ConcurrentHashMap<>();
+    private final Map<String, Failure> mFailures = new ConcurrentHashMap<>();
+
+    private static class Failure {
+        final long mDelay;
+        final long mRetryAt;
+
+        Failure(long delay) {
+            mDelay = delay;
+            mRetryAt = System.currentTimeMillis() + delay;
+        }
+    }
+
+    private SubtitleCache(File directory) {
+        mDirectory = directory;
+        mMemory = new LruCache<String, SubtitleCues>(MEMORY_BYTES) {
+            @Override
+            protected int sizeOf(String url, SubtitleCues cues) {
+                return cues.getApproximateBytes();
+            }
+        };
+    }
+
+    public static synchronized SubtitleCache getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new SubtitleCache(new File(context.getCacheDir(), DIRECTORY));
+        }
+        return sDefault;
+    }
+
+    /*
+     Returns the subtitle urls of metadata.tracks, in catalog order.
+     */
+    public static List<String> getTrackUrls(MediaSourceManager.MediaSource source) {
+        return getTrackUrls(source.metadata.get("tracks"));
+    }
+
+    /*
+     Returns the url of the track to show: the first one in the language of the
+     device, or the first one if there is none. Null if there are no tracks.
+     */
+    public static String getPreferredTrack(Object tracks) {
+        if (!(tracks instanceof JSONArray)) {
+            return null;
+        }
+        JSONArray array = (JSONArray) tracks;
+        String language = Locale.getDefault().getLanguage().toLowerCase(Locale.US);
+        String first = null;
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject track = array.optJSONObject(i);
+            if (track == null || !isSubtitle(track)) {
+                continue;
+            }
+            if (first == null) {
+                first = track.optString("src");
+            }
+            if (track.optString("srclang").toLowerCase(Locale.US).startsWith(language)) {
+                return track.optString("src");
+            }
+        }
+        return first;
+    }
+
+    /*
+     Queues the download and parsing of every track of source.
+     */
+    public void prefetch(MediaSourceManager.MediaSource source) {
+        for (String url : getTrackUrls(source)) {
+            prefetch(url);
+        }
+    }
+
+    /*
+     Queues the download and parsing of url, unless it is loaded, queued or
+     failed recently. Cheap enough to call on every position update.
+     */
+    public void prefetch(final String url) {
+        if (url == null || mMemory.get(url) != null) {
+            return;
+        }
+        Failure failure = mFailures.get(url);
+        if (failure != null && System.currentTimeMillis() < failure.mRetryAt) {
+            return;
+        }
+        if (mPending.put(url, Boolean.TRUE) != null) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(url);
+                } finally {
+                    mPending.remove(url);
+                }
+            }
+        });
+    }
+
+    /*
+     Returns the parsed track, or null if it has not been loaded yet. Does no I/O.
+     */
+    public SubtitleCues get(String url) {
+        return url != null ? mMemory.get(url) : null;
+    }
+
+    public void trimMemory() {
+        mMemory.evictAll();
+    }
+
+    private void load(String url) {
+        File file = getFile(url);
+        try {
+            if (file.exists()) {
+                // Keep recently used tracks longest, see trimDisk()
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                download(url, file);
+                trimDisk();
+            }
+            InputStreamReader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+            try {
+                SubtitleCues cues = SubtitleCues.parse(reader);
+                mMemory.put(url, cues);
+                mFailures.remove(url);
+                Log.i(TAG, "Loaded " + cues.size() + " cues from " + url);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // A malformed file is downloaded again on the next attempt
+            file.delete();
+            Failure previous = mFailures.get(url);
+            Failure failure = new Failure(previous != null
+                    ? Math.min(previous.mDelay * 2, RETRY_MAX_MS) : RETRY_MIN_MS);
+            mFailures.put(url, failure);
+            Log.e(TAG, "Error loading subtitles " + url + ", retrying in "
+                    + (failure.mDelay / 1000) + "s. " + e.toString());
+        }
+    }
+
+    private void download(String url, File file) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+            }
+        } finally {
+            tmpFile.delete();
+            connection.disconnect();
+        }
+    }
+
+    // Deletes the least recently used files until the directory fits its budget
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > DISK_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    // Hashes the url, only called on the download thread
+    private File getFile(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, name.append(".vtt").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> getTrackUrls(Object tracks) {
+        List<String> urls = new ArrayList<>();
+        if (tracks instanceof JSONArray) {
+            JSONArray array = (JSONArray) tracks;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject track = array.optJSONObject(i);
+                if (track != null && isSubtitle(track)) {
+                    urls.add(track.optString("src"));
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static boolean isSubtitle(JSONObject track) {
+        String kind = track.optString("kind", "subtitles");
+        return ("subtitles".equals(kind) || "captions".equals(kind))
+                && !track.optString("src").isEmpty();
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * SubtitleCues.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+ Cues of a WebVTT subtitle track, indexed by start time.
+
+ The file is parsed line by line, only the cue times and texts are kept, in
+ parallel arrays sorted by start time. find() is a binary search.
+ */
+public class SubtitleCues {
+
+    private static final String ARROW = "-->";
+
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final String[] mTexts;
+    private final int mCount;
+    private final int mTextChars;
+
+    private SubtitleCues(long[] starts, long[] ends, String[] texts, int count, int textChars) {
+        mStarts = starts;
+        mEnds = ends;
+        mTexts = texts;
+        mCount = count;
+        mTextChars = textChars;
+    }
+
+    /*
+     Parses a WebVTT track. Blocks that are not cues (header, NOTE, STYLE) are skipped.
+     */
+    public static SubtitleCues parse(Reader vtt) throws IOException {
+        BufferedReader reader = new BufferedReader(vtt);
+        long[] starts = new long[64];
+        long[] ends = new long[64];
+        String[] texts = new String[64];
+        int count = 0;
+        int textChars = 0;
+        boolean sorted = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int arrow = line.indexOf(ARROW);
+            if (arrow < 0) {
+                continue;
+            }
+            long start = parseTime(line.substring(0, arrow));
+            String end = line.substring(arrow + ARROW.length()).trim();
+            int settings = end.indexOf(' ');
+            long stop = parseTime(settings > 0 ? end.substring(0, settings) : end);
+            if (start < 0 || stop < 0) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            while ((line = reader.readLine()) != null && !line.trim().isEmpty()) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(line);
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                texts = Arrays.copyOf(texts, count * 2);
+            }
+            sorted &= count == 0 || starts[count - 1] <= start;
+            starts[count] = start;
+            ends[count] = stop;
+            texts[count] = text.toString();
+            textChars += texts[count].length();
+            count++;
+        }
+        if (!sorted) {
+            sort(starts, ends, texts, count);
+        }
+        return new SubtitleCues(starts, ends, texts, count, textChars);
+    }
+
+    /*
+     Returns the text shown at position (milliseconds), or null between cues.
+     */
+    public String find(long position) {
+        // Last cue starting at or before position
+        int low = 0;
+        int high = mCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found >= 0 && position < mEnds[found]) {
+            return mTexts[found];
+        }
+        return null;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    // Rough heap size, used to bound the memory cache
+    public int getApproximateBytes() {
+        return mCount * (8 + 8 + 4 + 40) + mTextChars * 2;
+    }
+
+    // Parses "hh:mm:ss.ttt" or "mm:ss.ttt", returns -1 if invalid
+    private static long parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length < 2 || parts.length > 3) {
+            return -1;
+        }
+        try {
+            long hours = parts.length == 3 ? Long.parseLong(parts[0]) : 0;
+            long minutes = Long.parseLong(parts[parts.length - 2]);
+            String[] seconds = parts[parts.length - 1].split("\\.");
+            long millis = seconds.length > 1 ? Long.parseLong(seconds[1]) : 0;
+            return ((hours * 60 + minutes) * 60 + Long.parseLong(seconds[0])) * 1000 + millis;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sort(long[] starts, long[] ends, String[] texts, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final long[] keys = starts;
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a] < keys[b] ? -1 : (keys[a] == keys[b] ? 0 : 1);
+            }
+        });
+        long[] sortedStarts = new long[count];
+        long[] sortedEnds = new long[count];
+        String[] sortedTexts = new String[count];
+        for (int i = 0; i < count; i++) {
+            sortedStarts[i] = starts[order[i]];
+            sortedEnds[i] = ends[order[i]];
+            sortedTexts[i] = texts[order[i]];
+        }
+        System.arraycopy(sortedStarts, 0, starts, 0, count);
+        System.arraycopy(sortedEnds, 0, ends, 0, count);
+        System.arraycopy(sortedTexts, 0, texts, 0, count);
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * MediaProbeTest.java
+ *
+ * Copyright (c) 2015 Amazon Technologies, Inc. All rights reserved.
+ *
+ * PROPRIETARY/CONFIDENTIAL
+ *
+ * Use is subject to license terms.
+ */
+
+package com.amazon.whisperplay.example.flingsample;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ Probes urls of a local stub HTTP server. Paths choose how the server answers:
+ /ok serves HEAD, /head405, /head501 and /head403 refuse HEAD with that status
+ and serve the range GET, /missing is a 404, /slow waits until released.
+ */
+public class MediaProbeTest {
+
+    private static final long WAIT_MS = 5000;
+    private static final long LENGTH = 1234;
+
+    private HttpServer mServer;
+    private String mBase;
+    // Method and path of every request, in order
+    private final List<String> mRequests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mSlowRunning = new AtomicInteger();
+    private final AtomicInteger mSlowMaxRunning = new AtomicInteger();
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private MediaProbe mProbe;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        mRelease.countDown();
+        if (mProbe != null) {
+            mProbe.shutdown();
+        }
+        mServer.stop(0);
+    }
+
+    @Test
+    public void headReportsStatusTypeAndLength() throws Exception {
+        mProbe = new MediaProbe(4, 2, 60000);
+        MediaProbe.Result result = probeAndWait(mBase + "/ok/video.mp4");
+        assertEquals(200, result.status);
+        assertEquals("video/mp4", result.contentType);
+        assertEquals(LENGTH, result.contentLength);
+        assertTrue(result.isReachable());
+        assertEquals(1, mRequests.size());
+        assertEquals("HEAD /ok/video.mp4", mRequests.get(0));
+    }
+
+    @Test
+    public void refusedHeadFallsBackToRangeGet() throws Exception {
+        mProbe = new MediaProbe(4, 2, 60000);
+        for (String path : new String[] { "/head405", "/head501", "/head403" }) {
+            mRequests.clear();
+            MediaProbe.Result result = probeAndWait(mBase + path + "/video.mp4");
+            assertEquals(206, result.status);
+            assertEquals(LENGTH, result.contentLength);
+            assertTrue(result.isReachable());
+            assertEquals(2, mRequests.size());
+            assertEquals("HEAD " + path + "/video.mp4", mRequests.get(0));
+            assertEquals("GET " + path + "/video.mp4 bytes=0-0", mRequests.get(1));
+        }
+    }
+
+    @Test
+    public void errorStatusIsRefused() throws Exception {
+        mProbe = new MediaProbe(4, 2, 60000);
+        MediaProbe.Result result = probeAndWait(mBase + "/missing/video.mp4");
+        assertEquals(404, result.status);
+        assertTrue(result.isRefused());
+    }
+
+    @Test
+    public void resultIsCachedUntilTtl() throws Exception {
+        mProbe = new MediaProbe(4, 2, 300);
+        String url = mBase + "/ok/video.mp4";
+        probeAndWait(url);
+        mProbe.probe(url);
+        Thread.sleep(100);
+        assertEquals(1, mRequests.size());
+        assertNotNull(mProbe.getCached(url));
+
+        Thread.sleep(400);
+        assertNull(mProbe.getCached(url));
+        probeAndWait(url);
+        assertEquals(2, mRequests.size());
+    }
+
+    @Test
+    public void concurrentProbesOfOneUrlAreMerged() throws Exception {
+        mProbe = new MediaProbe(4, 2, 60000);
+        String url = mBase + "/slow/video.mp4";
+        for (int i = 0; i < 5; i++) {
+            mProbe.probe(url);
+        }
+        waitFor(1, mSlowRunning);
+        mRelease.countDown();
+        waitForResult(url);
+        assertEquals(1, mRequests.size());
+    }
+
+    @Test
+    public void probesPerHostAreLimited() throws Exception {
+        mProbe = new MediaProbe(4, 2, 60000);
+        for (int i = 0; i < 6; i++) {
+            mProbe.probe(mBase + "/slow/" + i + ".mp4");
+        }
+        waitFor(2, mSlowRunning);
+        // Another host is not held up by the probes waiting for this one
+        String otherHost = mBase.replace("127.0.0.1", "localhost") + "/ok/video.mp4";
+        assertTrue(probeAndWait(otherHost).isReachable());
+        assertEquals(2, mSlowMaxRunning.get());
+
+        mRelease.countDown();
+        for (int i = 0; i < 6; i++) {
+            waitForResult(mBase + "/slow/" + i + ".mp4");
+        }
+        assertEquals(2, mSlowMaxRunning.get());
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        mRequests.add(method + " " + path + (range != null ? " " + range : ""));
+        exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+        if (path.startsWith("/missing")) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (path.startsWith("/slow")) {
+            int running = mSlowRunning.incrementAndGet();
+            synchronized (mSlowMaxRunning) {
+                mSlowMaxRunning.set(Math.max(mSlowMaxRunning.get(), running));
+            }
+            try {
+                mRelease.await(WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mSlowRunning.decrementAndGet();
+            }
+        }
+        if ("HEAD".equals(method)) {
+            if (path.startsWith("/head405")) {
+                exchange.sendResponseHeaders(405, -1);
+            } else if (path.startsWith("/head501")) {
+                exchange.sendResponseHeaders(501, -1);
+            } else if (path.startsWith("/head403")) {
+                exchange.sendResponseHeaders(403, -1);
+            } else {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(LENGTH));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes 0-0/" + LENGTH);
+        exchange.sendResponseHeaders(206, 1);
+        OutputStream body = exchange.getResponseBody();
+        body.write(0);
+        body.close();
+    }
+
+    private MediaProbe.Result probeAndWait(String url) throws InterruptedException {
+        mProbe.probe(url);
+        return waitForResult(url);
+    }
+
+    private MediaProbe.Result waitForResult(String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        MediaProbe.Result result;
+        while ((result = mProbe.getCached(url)) == null) {
+            assertTrue("No result for " + url, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return result;
+    }
+
+    private static void waitFor(int value, AtomicInteger counter) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (counter.get() < value) {
+            assertFalse("Waiting for " + value, System.currentTimeMillis() > deadline);
+            Thread.sleep(10);
+        }
+    }
+}